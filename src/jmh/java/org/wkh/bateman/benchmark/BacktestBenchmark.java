@@ -0,0 +1,110 @@
+package org.wkh.bateman.benchmark;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wkh.bateman.model.BuyZoneDayEvaluator;
+import org.wkh.bateman.model.BuyZoneModel;
+import org.wkh.bateman.trade.Account;
+import org.wkh.bateman.trade.Asset;
+import org.wkh.bateman.trade.Conditions;
+import org.wkh.bateman.trade.FixedPercentageAllocationStrategy;
+import org.wkh.bateman.trade.MoneyManagementStrategy;
+import org.wkh.bateman.trade.Session;
+import org.wkh.bateman.trade.TimeSeries;
+import org.wkh.bateman.trade.TimeSeriesFile;
+
+/*
+ * One BuyZoneModel backtest over the sample series, with the trading
+ * conditions BuyZoneOptimizer.main uses, through both signal generators, and
+ * with the statistics-only session and balance-only account the optimizer's
+ * fitness uses, and answered a day at a time by a BuyZoneDayEvaluator, whose
+ * tables are built separately. The series is either on the heap or mapped
+ * from a TimeSeriesFile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BacktestBenchmark {
+
+    private static final double BUY_TRIGGER = 0.5;
+    private static final double SELL_TRIGGER = 1.0;
+    private static final double STOP_LOSS = 1.0;
+    @Param({"heap", "mapped"})
+    public String storage;
+    private TimeSeries series;
+    private Asset asset;
+    private Conditions conditions;
+    private MoneyManagementStrategy moneyManager;
+    private BuyZoneDayEvaluator dayEvaluator;
+
+    @Setup
+    public void setUp() throws Exception {
+        series = SampleData.googleSeries();
+
+        if (storage.equals("mapped")) {
+            Path path = Files.createTempFile("sample", ".bars");
+            TimeSeriesFile.write(path, SampleData.SYMBOL, SampleData.INTERVAL, series);
+            series = TimeSeriesFile.open(path).getSeries();
+            Files.delete(path);
+        }
+
+        asset = new Asset(SampleData.SYMBOL, series);
+        conditions = new Conditions(new BigDecimal(10.0), new BigDecimal(1.0E-3));
+        moneyManager = new FixedPercentageAllocationStrategy(0.75, asset);
+        dayEvaluator = buildDayTables();
+    }
+
+    private BuyZoneModel model() throws Exception {
+        return model(false);
+    }
+
+    private BuyZoneModel model(boolean finalBalanceOnly) throws Exception {
+        Account account = new Account(new BigDecimal(100000), series.beginningOfSeries(), finalBalanceOnly);
+
+        return new BuyZoneModel(account, asset, conditions, moneyManager, BUY_TRIGGER, SELL_TRIGGER, STOP_LOSS);
+    }
+
+    @Benchmark
+    public double generateSignals() throws Exception {
+        Session session = model().generateSignals(series.beginningOfSeries(), series.lastOfSeries());
+        return session.sharpeRatio();
+    }
+
+    @Benchmark
+    public double generateIndexedSignals() throws Exception {
+        Session session = model().generateIndexedSignals(series.beginningOfSeries(), series.lastOfSeries());
+        return session.sharpeRatio();
+    }
+
+    @Benchmark
+    public double generateIndexedStatistics() throws Exception {
+        Session session = model(true).generateIndexedSignals(series.beginningOfSeries(), series.lastOfSeries(), true);
+        return session.sharpeRatio();
+    }
+
+    @Benchmark
+    public BuyZoneDayEvaluator buildDayTables() {
+        return new BuyZoneDayEvaluator(asset, conditions, moneyManager, 100000);
+    }
+
+    @Benchmark
+    public double evaluateByDay() {
+        return dayEvaluator.evaluate(new double[]{BUY_TRIGGER, SELL_TRIGGER, STOP_LOSS});
+    }
+}
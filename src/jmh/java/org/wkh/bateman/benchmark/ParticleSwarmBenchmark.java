@@ -0,0 +1,87 @@
+package org.wkh.bateman.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wkh.bateman.model.BuyZoneDayEvaluator;
+import org.wkh.bateman.model.BuyZoneOptimizer;
+import org.wkh.bateman.pso.FitnessFunction;
+import org.wkh.bateman.pso.SimpleParticleSwarmOptimizer;
+import org.wkh.bateman.trade.Asset;
+import org.wkh.bateman.trade.Conditions;
+import org.wkh.bateman.trade.FixedPercentageAllocationStrategy;
+import org.wkh.bateman.trade.TimeSeries;
+
+/*
+ * A single generation of the BuyZoneModel trigger search, over the bounds
+ * BuyZoneOptimizer.main derives from the sample data. The optimizer is built
+ * for one generation, so every call to learn() moves and re-evaluates the
+ * whole swarm once, on that many threads, or serially for threads = 0. The
+ * fitness is either a backtest per particle or the day-at-a-time evaluator,
+ * which scores each generation (or each thread's share of it) in one walk
+ * over the days.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParticleSwarmBenchmark {
+
+    @Param({"0", "4"})
+    public int threads;
+    @Param({"backtest", "days"})
+    public String fitness;
+    private ExecutorService executor;
+    private SimpleParticleSwarmOptimizer optimizer;
+
+    @Setup
+    public void setUp() throws Exception {
+        TimeSeries series = SampleData.googleSeries();
+        Asset asset = new Asset(SampleData.SYMBOL, series);
+        Conditions conditions = new Conditions(new BigDecimal(10.0), new BigDecimal(1.0E-3));
+
+        FixedPercentageAllocationStrategy moneyManager = new FixedPercentageAllocationStrategy(0.75, asset);
+        FitnessFunction function = fitness.equals("days")
+                ? new BuyZoneDayEvaluator(asset, conditions, moneyManager, 100000)
+                : BuyZoneOptimizer.backtest(asset, conditions, moneyManager, 100000);
+
+        double spread = SampleData.medianHighOpenSpread();
+        double minSell = series.priceAt(series.beginningOfSeries()).multiply(new BigDecimal("0.002")).doubleValue();
+
+        double[] xmin = new double[]{0.0, minSell, 0.0};
+        double[] xmax = new double[]{spread, spread, spread};
+
+        if (threads > 0) {
+            executor = Executors.newFixedThreadPool(threads);
+        }
+
+        optimizer = new SimpleParticleSwarmOptimizer(function, xmin, xmax, 1, 42L, executor);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public double[] generation() {
+        return optimizer.learn();
+    }
+}
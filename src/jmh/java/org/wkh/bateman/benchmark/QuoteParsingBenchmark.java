@@ -0,0 +1,64 @@
+package org.wkh.bateman.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wkh.bateman.fetch.GooglePriceParser;
+import org.wkh.bateman.fetch.GoogleQuoteFetcher;
+import org.wkh.bateman.fetch.Quote;
+import org.wkh.bateman.fetch.QuoteCollection;
+import org.wkh.bateman.trade.TimeSeries;
+
+/*
+ * Parsing the sample Google response into quotes and turning those into a
+ * series, against streaming the same bytes straight into a series.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuoteParsingBenchmark {
+
+    private String response;
+    private byte[] responseBytes;
+    private List<Quote> quotes;
+    private GoogleQuoteFetcher fetcher;
+    private QuoteCollection collection;
+
+    @Setup
+    public void setUp() throws Exception {
+        response = SampleData.googleResponse();
+        responseBytes = response.getBytes(StandardCharsets.UTF_8);
+        fetcher = new GoogleQuoteFetcher();
+        quotes = fetcher.parseQuotes(response, SampleData.INTERVAL);
+        collection = new QuoteCollection();
+    }
+
+    @Benchmark
+    public List<Quote> parseQuotes() {
+        return fetcher.parseQuotes(response, SampleData.INTERVAL);
+    }
+
+    @Benchmark
+    public TimeSeries convertQuoteToTimeSeries() throws Exception {
+        return collection.convertQuoteToTimeSeries(quotes);
+    }
+
+    @Benchmark
+    public TimeSeries parseStream() throws Exception {
+        return GooglePriceParser.parse(new ByteArrayInputStream(responseBytes), SampleData.INTERVAL);
+    }
+}
@@ -0,0 +1,88 @@
+package org.wkh.bateman.benchmark;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+import org.wkh.bateman.fetch.GooglePriceParser;
+import org.wkh.bateman.fetch.GoogleQuoteFetcher;
+import org.wkh.bateman.fetch.Quote;
+import org.wkh.bateman.fetch.QuoteFetcher;
+import org.wkh.bateman.fetch.YahooQuoteFetcher;
+import org.wkh.bateman.model.BuyZoneOptimizer;
+import org.wkh.bateman.trade.TimeSeries;
+
+/*
+ * The sample Google and Yahoo responses bundled in src/main/resources, served
+ * through fetchers that never touch the network.
+ */
+public class SampleData {
+
+    public static final String SYMBOL = "AAPL";
+    public static final int DAYS = 30;
+    public static final int INTERVAL = 60;
+    public static final int DAILY = 60 * 60 * 24;
+
+    public static String googleResponse() throws Exception {
+        return load("sample_google_response.csv");
+    }
+
+    public static String yahooResponse() throws Exception {
+        return load("sample_yahoo_response.csv");
+    }
+
+    public static QuoteFetcher googleFetcher() throws Exception {
+        final String response = googleResponse();
+
+        return new GoogleQuoteFetcher() {
+            @Override
+            public String fetchQuotes(String symbol, int days, int interval) {
+                return response;
+            }
+
+            @Override
+            public TimeSeries fetchAndParse(String symbol, int days, int interval) throws Exception {
+                return GooglePriceParser.parse(new ByteArrayInputStream(response.getBytes(Charsets.UTF_8)), interval);
+            }
+        };
+    }
+
+    public static QuoteFetcher yahooFetcher() throws Exception {
+        final String response = yahooResponse();
+
+        return new YahooQuoteFetcher() {
+            @Override
+            public String fetchQuotes(String symbol, int days, int interval) {
+                return response;
+            }
+        };
+    }
+
+    public static List<Quote> googleQuotes() throws Exception {
+        return googleFetcher().fetchQuoteList(SYMBOL, DAYS, INTERVAL);
+    }
+
+    public static TimeSeries googleSeries() throws Exception {
+        return googleFetcher().fetchAndParse(SYMBOL, DAYS, INTERVAL);
+    }
+
+    public static double medianHighOpenSpread() throws Exception {
+        return BuyZoneOptimizer.getMedianHighOpenSpread(googleSeries());
+    }
+
+    private static String load(String resource) throws Exception {
+        InputStream in = SampleData.class.getClassLoader().getResourceAsStream(resource);
+
+        if (in == null) {
+            throw new IllegalStateException("Missing sample resource " + resource);
+        }
+
+        try {
+            return CharStreams.toString(new InputStreamReader(in, Charsets.UTF_8)).replaceAll("\r\n", "\n");
+        } finally {
+            in.close();
+        }
+    }
+}
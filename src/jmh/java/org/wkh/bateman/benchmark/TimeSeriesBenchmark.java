@@ -0,0 +1,113 @@
+package org.wkh.bateman.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.wkh.bateman.trade.CompressedTimeSeries;
+import org.wkh.bateman.trade.Indicators;
+import org.wkh.bateman.trade.TimeSeries;
+import org.wkh.bateman.trade.TimeSeriesType;
+
+/*
+ * Day lookups for every bar of the sample series, as a backtest makes them,
+ * a cold computation of each indicator, resampling to hourly and daily bars,
+ * and compressing the series and decoding it again whole or a block at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeSeriesBenchmark {
+
+    private TimeSeries series;
+    private DateTime[] bars;
+    private CompressedTimeSeries compressed;
+
+    @Setup
+    public void setUp() throws Exception {
+        series = SampleData.googleSeries();
+        bars = new DateTime[series.size()];
+
+        for (int i = 0; i < bars.length; i++) {
+            bars[i] = series.dateAt(i);
+        }
+
+        compressed = CompressedTimeSeries.encode(series);
+    }
+
+    @Benchmark
+    public void openOnDay(Blackhole blackhole) {
+        for (DateTime bar : bars) {
+            blackhole.consume(series.openOnDay(bar));
+        }
+    }
+
+    @Benchmark
+    public void closeOnDay(Blackhole blackhole) {
+        for (DateTime bar : bars) {
+            blackhole.consume(series.closeOnDay(bar));
+        }
+    }
+
+    @Benchmark
+    public void openUnitsOnDay(Blackhole blackhole) {
+        for (int i = 0; i < bars.length; i++) {
+            blackhole.consume(series.openUnitsOnDay(i));
+        }
+    }
+
+    @Benchmark
+    public void closeIndexOnDay(Blackhole blackhole) {
+        for (int i = 0; i < bars.length; i++) {
+            blackhole.consume(series.closeIndexOnDay(i));
+        }
+    }
+
+    @Benchmark
+    public void indicators(Blackhole blackhole) {
+        Indicators indicators = new Indicators(series);
+
+        blackhole.consume(indicators.sma(20));
+        blackhole.consume(indicators.roc(20));
+        blackhole.consume(indicators.max(20));
+        blackhole.consume(indicators.min(20));
+        blackhole.consume(indicators.stdDev(20));
+    }
+
+    @Benchmark
+    public TimeSeries resampleHourly() throws Exception {
+        return series.resample(TimeSeriesType.HOURLY);
+    }
+
+    @Benchmark
+    public TimeSeries resampleDaily() throws Exception {
+        return series.resample(TimeSeriesType.DAILY);
+    }
+
+    @Benchmark
+    public CompressedTimeSeries compress() throws Exception {
+        return CompressedTimeSeries.encode(series);
+    }
+
+    @Benchmark
+    public TimeSeries decompress() throws Exception {
+        return compressed.decode();
+    }
+
+    @Benchmark
+    public TimeSeries decompressBlock() throws Exception {
+        return compressed.decodeBlock(compressed.blockCount() / 2);
+    }
+}
@@ -0,0 +1,103 @@
+package org.wkh.bateman.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wkh.bateman.model.BuyZoneDayEvaluator;
+import org.wkh.bateman.model.BuyZoneTriggerSolver;
+import org.wkh.bateman.pso.IslandParticleSwarmOptimizer;
+import org.wkh.bateman.pso.SimpleParticleSwarmOptimizer;
+import org.wkh.bateman.pso.StoppingCriteria;
+import org.wkh.bateman.trade.Asset;
+import org.wkh.bateman.trade.Conditions;
+import org.wkh.bateman.trade.FixedPercentageAllocationStrategy;
+import org.wkh.bateman.trade.MoneyManagementStrategy;
+import org.wkh.bateman.trade.TimeSeries;
+
+/*
+ * A full search for BuyZoneModel triggers over the sample data, within the
+ * bounds BuyZoneOptimizer.main derives: BuyZoneTriggerSolver against a 100
+ * generation swarm on one thread, and against four such swarms as islands,
+ * each on a thread of its own, and against a swarm that stops after 20
+ * generations without improving and reseeds particles stuck for 10, as
+ * BuyZoneOptimizer.main runs. The fitness each finds is logged at setup, as
+ * JMH only reports the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TriggerSearchBenchmark {
+
+    private static Logger logger = LoggerFactory.getLogger(TriggerSearchBenchmark.class.getName());
+    private Asset asset;
+    private Conditions conditions;
+    private MoneyManagementStrategy moneyManager;
+    private double[] xmin;
+    private double[] xmax;
+
+    @Setup
+    public void setUp() throws Exception {
+        TimeSeries series = SampleData.googleSeries();
+        asset = new Asset(SampleData.SYMBOL, series);
+        conditions = new Conditions(new BigDecimal(10.0), new BigDecimal(1.0E-3));
+        moneyManager = new FixedPercentageAllocationStrategy(0.75, asset);
+
+        double spread = SampleData.medianHighOpenSpread();
+        double minSell = series.priceAt(series.beginningOfSeries()).multiply(new BigDecimal("0.002")).doubleValue();
+
+        xmin = new double[]{0.0, minSell, 0.0};
+        xmax = new double[]{spread, spread, spread};
+
+        BuyZoneDayEvaluator fitness = new BuyZoneDayEvaluator(asset, conditions, moneyManager, 100000);
+        BuyZoneTriggerSolver solver = new BuyZoneTriggerSolver(asset, conditions, moneyManager, 100000, xmin, xmax);
+        solver.solve();
+
+        logger.info("Solver: " + solver.getBestValue() + " in " + solver.getEvaluations() + " backtests, swarm: "
+                + fitness.evaluate(swarm()) + ", islands: " + fitness.evaluate(islands())
+                + ", stopping swarm: " + fitness.evaluate(stoppingSwarm()));
+    }
+
+    @Benchmark
+    public double[] solve() {
+        return new BuyZoneTriggerSolver(asset, conditions, moneyManager, 100000, xmin, xmax).solve();
+    }
+
+    @Benchmark
+    public double[] swarm() {
+        BuyZoneDayEvaluator fitness = new BuyZoneDayEvaluator(asset, conditions, moneyManager, 100000);
+        return new SimpleParticleSwarmOptimizer(fitness, xmin, xmax, 100, 42L, null).learn();
+    }
+
+    @Benchmark
+    public double[] islands() {
+        BuyZoneDayEvaluator fitness = new BuyZoneDayEvaluator(asset, conditions, moneyManager, 100000);
+        return new IslandParticleSwarmOptimizer(fitness, xmin, xmax, 100, 4, 42L, null).learn();
+    }
+
+    @Benchmark
+    public double[] stoppingSwarm() {
+        BuyZoneDayEvaluator fitness = new BuyZoneDayEvaluator(asset, conditions, moneyManager, 100000);
+        SimpleParticleSwarmOptimizer optimizer = new SimpleParticleSwarmOptimizer(fitness, xmin, xmax, 100, 42L, null);
+
+        StoppingCriteria criteria = new StoppingCriteria();
+        criteria.setStagnationLimit(20);
+        criteria.setReseedAfter(10);
+        optimizer.setStoppingCriteria(criteria);
+
+        return optimizer.learn();
+    }
+}
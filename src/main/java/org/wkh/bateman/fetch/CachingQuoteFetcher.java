@@ -0,0 +1,283 @@
+package org.wkh.bateman.fetch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.http.client.HttpClient;
+import org.joda.time.DateTime;
+import org.joda.time.Days;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wkh.bateman.trade.Money;
+import org.wkh.bateman.trade.TimeSeries;
+
+/*
+ * Keeps the parsed bars for each symbol and interval in a file under a cache
+ * directory, and only asks the wrapped fetcher for the days since the last
+ * cached bar. The tail is always refetched from the day of the last cached bar
+ * onwards, since that day may not have been complete when it was cached.
+ *
+ * Each file starts with the earliest time the cache has been asked to cover,
+ * followed by the bars in Google's getprices layout: a COLUMNS header, then
+ * one anchored row per bar of epoch seconds, open, high, low, close and volume
+ * (bar times are whole seconds, as every quote source gives them).
+ * Reads go through GooglePriceParser and writes come straight from the series'
+ * columns, so neither makes a Quote or BigDecimal per bar. A file that can't
+ * be read, such as one in an older layout, is logged and fetched again.
+ *
+ * Missing days are fetched with the wrapped fetcher's fetchAndParse, so a
+ * fetcher that streams its response into a series, as GoogleQuoteFetcher
+ * does, still does so behind the cache. A request is served as the cached
+ * bars from midnight `days` days ago on.
+ */
+public class CachingQuoteFetcher extends QuoteFetcher {
+
+    private static Logger logger = LoggerFactory.getLogger(CachingQuoteFetcher.class.getName());
+    private static final String FROM_HEADER = "#from=";
+    private static final String COLUMNS_HEADER = "COLUMNS=DATE,OPEN,HIGH,LOW,CLOSE,VOLUME";
+    private QuoteFetcher source;
+    private Path directory;
+    private ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+    public CachingQuoteFetcher(QuoteFetcher source, Path directory) throws IOException {
+        this.source = source;
+        this.directory = directory;
+
+        Files.createDirectories(directory);
+    }
+
+    /* Raw requests are never cached */
+    @Override
+    public String fetchQuotes(String symbol, int days, int interval) throws Exception {
+        return source.fetchQuotes(symbol, days, interval);
+    }
+
+    @Override
+    public List<Quote> parseQuotes(String quoteList, int interval) {
+        return source.parseQuotes(quoteList, interval);
+    }
+
+    @Override
+    public void setHttpClient(HttpClient httpClient) {
+        source.setHttpClient(httpClient);
+    }
+
+    @Override
+    public TimeSeries fetchAndParse(String symbol, int days, int interval) throws Exception {
+        Path path = cachePath(symbol, interval);
+        DateTime today = DateTime.now().toDateMidnight().toDateTime();
+        DateTime windowStart = today.minusDays(days);
+
+        synchronized (lockFor(path)) {
+            CachedBars cached = read(path, interval);
+            TimeSeries bars = cached.bars;
+            long from = cached.from;
+
+            int missingDays;
+
+            if (bars == null || bars.size() == 0 || windowStart.getMillis() < from) {
+                missingDays = days;
+                from = Math.min(from, windowStart.getMillis());
+            } else {
+                DateTime lastDay = bars.lastOfSeries().toDateMidnight().toDateTime();
+                missingDays = Math.min(days, Days.daysBetween(lastDay, today).getDays() + 1);
+            }
+
+            logger.info("Fetching " + missingDays + " of " + days + " days of " + symbol + " (" + interval + "s bars)");
+
+            TimeSeries fresh = source.fetchAndParse(symbol, missingDays, interval);
+
+            if (bars == null) {
+                bars = fresh;
+            } else if (fresh.size() > 0) {
+                // the fresh bars replace whatever was cached from their start on
+                bars = append(bars.slice(0, bars.ceilingIndex(fresh.timeAt(0))), fresh);
+            }
+
+            write(path, from, bars);
+
+            return bars.slice(bars.ceilingIndex(windowStart.getMillis()), bars.size());
+        }
+    }
+
+    /* Quotes are only made here, for callers that want them */
+    @Override
+    public List<Quote> fetchQuoteList(String symbol, int days, int interval) throws Exception {
+        TimeSeries bars = fetchAndParse(symbol, days, interval);
+        List<Quote> quotes = new ArrayList<Quote>(bars.size());
+
+        for (int i = 0; i < bars.size(); i++) {
+            quotes.add(new Quote(bars.dateAt(i), interval, price(bars.priceUnitsAt(i)), price(bars.highUnitsAt(i)),
+                    price(bars.lowUnitsAt(i)), price(bars.closeUnitsAt(i)), (int) bars.volumeAt(i)));
+        }
+
+        return quotes;
+    }
+
+    /* Time of the newest cached bar, or null if nothing is cached */
+    public DateTime lastCachedTime(String symbol, int interval) throws IOException {
+        Path path = cachePath(symbol, interval);
+
+        synchronized (lockFor(path)) {
+            TimeSeries bars = read(path, interval).bars;
+            return bars == null || bars.size() == 0 ? null : bars.lastOfSeries();
+        }
+    }
+
+    private static BigDecimal price(long units) {
+        return new BigDecimal(formatUnits(units));
+    }
+
+    /* Plainest decimal for a price, so 100 is written as 100 rather than 100.000000 */
+    private static String formatUnits(long units) {
+        StringBuilder text = new StringBuilder();
+
+        if (units < 0) {
+            text.append('-');
+            units = -units;
+        }
+
+        text.append(units / Money.ONE);
+
+        long fraction = units % Money.ONE;
+
+        if (fraction != 0) {
+            // zero-padded to Money.SCALE digits, then trailing zeros dropped
+            String digits = Long.toString(Money.ONE + fraction).substring(1);
+            int end = digits.length();
+
+            while (digits.charAt(end - 1) == '0') {
+                end--;
+            }
+
+            text.append('.').append(digits, 0, end);
+        }
+
+        return text.toString();
+    }
+
+    private static TimeSeries append(TimeSeries head, TimeSeries tail) throws Exception {
+        int n = head.size() + tail.size();
+        long[] times = new long[n];
+        long[] opens = new long[n];
+        long[] highs = new long[n];
+        long[] lows = new long[n];
+        long[] closes = new long[n];
+        long[] volumes = new long[n];
+
+        for (int i = 0; i < n; i++) {
+            TimeSeries bars = i < head.size() ? head : tail;
+            int j = i < head.size() ? i : i - head.size();
+
+            times[i] = bars.timeAt(j);
+            opens[i] = bars.priceUnitsAt(j);
+            highs[i] = bars.highUnitsAt(j);
+            lows[i] = bars.lowUnitsAt(j);
+            closes[i] = bars.closeUnitsAt(j);
+            volumes[i] = bars.volumeAt(j);
+        }
+
+        return new TimeSeries(times, opens, highs, lows, closes, volumes);
+    }
+
+    private Path cachePath(String symbol, int interval) {
+        return directory.resolve(symbol + "_" + interval + ".csv");
+    }
+
+    private Object lockFor(Path path) {
+        Object lock = new Object();
+        Object existing = locks.putIfAbsent(path.toString(), lock);
+        return existing == null ? lock : existing;
+    }
+
+    /* The cached bars and the earliest time they cover; nothing if the file is missing or unreadable */
+    private CachedBars read(Path path, int interval) throws IOException {
+        CachedBars cached = new CachedBars();
+
+        if (!Files.exists(path)) {
+            return cached;
+        }
+
+        InputStream in = new BufferedInputStream(Files.newInputStream(path));
+
+        try {
+            String header = readHeader(in);
+
+            if (!header.startsWith(FROM_HEADER)) {
+                throw new IOException("Missing " + FROM_HEADER + " header");
+            }
+
+            long from = Long.parseLong(header.substring(FROM_HEADER.length()));
+            cached.bars = GooglePriceParser.parse(in, interval);
+            cached.from = from;
+        } catch (IOException ex) {
+            logger.warn("Ignoring unreadable quote cache " + path, ex);
+        } catch (NumberFormatException ex) {
+            logger.warn("Ignoring unreadable quote cache " + path, ex);
+        } finally {
+            in.close();
+        }
+
+        return cached;
+    }
+
+    /* The first line of the stream, which is left positioned after it */
+    private static String readHeader(InputStream in) throws IOException {
+        StringBuilder header = new StringBuilder();
+        int c;
+
+        while ((c = in.read()) >= 0 && c != '\n') {
+            header.append((char) c);
+        }
+
+        return header.toString();
+    }
+
+    /* Writes to a temporary file first so a crash never leaves a truncated cache */
+    private void write(Path path, long from, TimeSeries bars) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8);
+
+        try {
+            out.write(FROM_HEADER + from + "\n");
+            out.write(COLUMNS_HEADER + "\n");
+
+            for (int i = 0; i < bars.size(); i++) {
+                out.write('a');
+                out.write(Long.toString(bars.timeAt(i) / 1000));
+                out.write(',');
+                out.write(formatUnits(bars.priceUnitsAt(i)));
+                out.write(',');
+                out.write(formatUnits(bars.highUnitsAt(i)));
+                out.write(',');
+                out.write(formatUnits(bars.lowUnitsAt(i)));
+                out.write(',');
+                out.write(formatUnits(bars.closeUnitsAt(i)));
+                out.write(',');
+                out.write(Long.toString(bars.volumeAt(i)));
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class CachedBars {
+
+        long from = Long.MAX_VALUE;
+        // null if nothing is cached
+        TimeSeries bars;
+    }
+}
@@ -0,0 +1,353 @@
+package org.wkh.bateman.fetch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import org.wkh.bateman.trade.Money;
+import org.wkh.bateman.trade.TimeSeries;
+
+/*
+ * Reads a Google getprices response straight off its stream into the columns
+ * of a TimeSeries, without a String, BigDecimal or Quote per bar. Prices are
+ * read digit by digit into Money units, rounded half-even past Money.SCALE
+ * places as Money.HALF_EVEN.fromBigDecimal would.
+ *
+ * A row's date is either "a" and the epoch seconds of an anchor, or a number of
+ * intervals after the last anchor. Other lines are KEY=value headers: INTERVAL
+ * overrides the interval asked for and COLUMNS gives the order of a row's
+ * fields. TIMEZONE_OFFSET lines, which Google repeats whenever the offset
+ * changes, are skipped since the times are epoch based anyway.
+ *
+ * Rows normally arrive in time order; if they don't, they're sorted, and as in
+ * QuoteCollection.convertQuoteToTimeSeries the later of two rows with the same
+ * time wins.
+ */
+public class GooglePriceParser {
+
+    private static final int DATE = 0;
+    private static final int OPEN = 1;
+    private static final int HIGH = 2;
+    private static final int LOW = 3;
+    private static final int CLOSE = 4;
+    private static final int VOLUME = 5;
+    private static final String[] COLUMN_NAMES = {"DATE", "OPEN", "HIGH", "LOW", "CLOSE", "VOLUME"};
+    private InputStream in;
+    private byte[] buffer = new byte[1 << 16];
+    private int position;
+    private int limit;
+    private byte[] line = new byte[128];
+    private int lineLength;
+    private int lineNumber;
+    private long intervalMillis;
+    // the column each field of a row goes to, or -1 to ignore it
+    private int[] fieldColumns = {DATE, CLOSE, HIGH, LOW, OPEN, VOLUME};
+    // a bit for each column some field goes to, all of which a row must have
+    private int mappedColumns = (1 << COLUMN_NAMES.length) - 1;
+    private long anchor;
+    private boolean anchored;
+    private long[] row = new long[6];
+    private long[][] columns = new long[6][1024];
+    private int size;
+    private boolean ordered = true;
+
+    private GooglePriceParser(InputStream in, int interval) {
+        this.in = in;
+        this.intervalMillis = interval * 1000L;
+    }
+
+    /* Reads to the end of the stream but leaves closing it to the caller */
+    public static TimeSeries parse(InputStream in, int interval) throws IOException {
+        return new GooglePriceParser(in, interval).parse();
+    }
+
+    private TimeSeries parse() throws IOException {
+        while (readLine()) {
+            lineNumber++;
+
+            if (lineLength == 0) {
+                continue;
+            }
+
+            if (isDigit(line[0]) || (line[0] == 'a' && lineLength > 1 && isDigit(line[1]))) {
+                readRow();
+            } else {
+                readHeader();
+            }
+        }
+
+        if (!ordered) {
+            sortRows();
+        }
+
+        try {
+            return new TimeSeries(Arrays.copyOf(columns[DATE], size), Arrays.copyOf(columns[OPEN], size),
+                    Arrays.copyOf(columns[HIGH], size), Arrays.copyOf(columns[LOW], size),
+                    Arrays.copyOf(columns[CLOSE], size), Arrays.copyOf(columns[VOLUME], size));
+        } catch (Exception ex) {
+            throw new IOException("Unusable Google prices", ex);
+        }
+    }
+
+    /* Fills line with the next line minus its terminator; false at the end of the stream */
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        boolean read = false;
+
+        while (true) {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+
+                if (limit <= 0) {
+                    limit = 0;
+                    return read;
+                }
+            }
+
+            read = true;
+
+            int end = position;
+            while (end < limit && buffer[end] != '\n') {
+                end++;
+            }
+
+            int length = end - position;
+
+            if (lineLength + length > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+            }
+
+            System.arraycopy(buffer, position, line, lineLength, length);
+            lineLength += length;
+            position = end;
+
+            if (end < limit) {
+                position++;
+
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                return true;
+            }
+        }
+    }
+
+    private void readHeader() throws IOException {
+        String header = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+        int equals = header.indexOf('=');
+
+        if (equals < 0) {
+            return;
+        }
+
+        String key = header.substring(0, equals);
+        String value = header.substring(equals + 1);
+
+        if (key.equals("INTERVAL")) {
+            try {
+                intervalMillis = Integer.parseInt(value) * 1000L;
+            } catch (NumberFormatException ex) {
+                throw malformed();
+            }
+        } else if (key.equals("COLUMNS")) {
+            String[] names = value.split(",");
+            fieldColumns = new int[names.length];
+            mappedColumns = 0;
+
+            for (int i = 0; i < names.length; i++) {
+                fieldColumns[i] = Arrays.asList(COLUMN_NAMES).indexOf(names[i]);
+
+                if (fieldColumns[i] >= 0) {
+                    mappedColumns |= 1 << fieldColumns[i];
+                }
+            }
+        }
+    }
+
+    private void readRow() throws IOException {
+        Arrays.fill(row, 0);
+
+        int field = 0;
+        int start = 0;
+        int read = 0;
+
+        for (int i = 0; i <= lineLength; i++) {
+            if (i < lineLength && line[i] != ',') {
+                continue;
+            }
+
+            int column = field < fieldColumns.length ? fieldColumns[field] : -1;
+
+            if (column == DATE) {
+                row[DATE] = readTime(start, i);
+            } else if (column == VOLUME) {
+                row[VOLUME] = readLong(start, i);
+            } else if (column >= 0) {
+                row[column] = readUnits(start, i);
+            }
+
+            if (column >= 0) {
+                read |= 1 << column;
+            }
+
+            field++;
+            start = i + 1;
+        }
+
+        // a short or truncated row would otherwise come through with zero prices
+        if (read != mappedColumns) {
+            throw malformed();
+        }
+
+        append();
+    }
+
+    private long readTime(int from, int to) throws IOException {
+        if (line[from] == 'a') {
+            anchor = readLong(from + 1, to) * 1000L;
+            anchored = true;
+            return anchor;
+        }
+
+        if (!anchored) {
+            throw new IOException("Offset before any anchor on line " + lineNumber);
+        }
+
+        return anchor + readLong(from, to) * intervalMillis;
+    }
+
+    private long readLong(int from, int to) throws IOException {
+        if (from == to) {
+            throw malformed();
+        }
+
+        long value = 0;
+
+        for (int i = from; i < to; i++) {
+            if (!isDigit(line[i])) {
+                throw malformed();
+            }
+            value = value * 10 + (line[i] - '0');
+        }
+
+        return value;
+    }
+
+    private long readUnits(int from, int to) throws IOException {
+        boolean negative = from < to && line[from] == '-';
+        int i = negative ? from + 1 : from;
+
+        if (i == to) {
+            throw malformed();
+        }
+
+        long units = 0;
+        int decimals = -1;
+        int roundingDigit = 0;
+        boolean moreDigits = false;
+
+        for (; i < to; i++) {
+            byte c = line[i];
+
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            }
+
+            if (!isDigit(c)) {
+                throw malformed();
+            }
+
+            int digit = c - '0';
+
+            if (decimals < 0) {
+                units = units * 10 + digit;
+            } else if (decimals < Money.SCALE) {
+                units = units * 10 + digit;
+                decimals++;
+            } else if (decimals == Money.SCALE) {
+                roundingDigit = digit;
+                decimals++;
+            } else {
+                moreDigits |= digit != 0;
+            }
+        }
+
+        for (int kept = Math.max(decimals, 0); kept < Money.SCALE; kept++) {
+            units *= 10;
+        }
+
+        if (roundingDigit > 5 || (roundingDigit == 5 && (moreDigits || units % 2 == 1))) {
+            units++;
+        }
+
+        return negative ? -units : units;
+    }
+
+    private void append() {
+        if (size > 0 && row[DATE] <= columns[DATE][size - 1]) {
+            if (row[DATE] == columns[DATE][size - 1]) {
+                size--;
+            } else {
+                ordered = false;
+            }
+        }
+
+        if (size == columns[DATE].length) {
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = Arrays.copyOf(columns[c], size * 2);
+            }
+        }
+
+        for (int c = 0; c < columns.length; c++) {
+            columns[c][size] = row[c];
+        }
+
+        size++;
+    }
+
+    /* Stable, so the last of any rows sharing a time is still last */
+    private void sortRows() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+
+        final long[] times = columns[DATE];
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(times[a], times[b]);
+            }
+        });
+
+        long[][] sorted = new long[columns.length][size];
+        int n = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (i + 1 < size && times[order[i + 1]] == times[order[i]]) {
+                continue;
+            }
+
+            for (int c = 0; c < columns.length; c++) {
+                sorted[c][n] = columns[c][order[i]];
+            }
+            n++;
+        }
+
+        columns = sorted;
+        size = n;
+    }
+
+    private IOException malformed() {
+        return new IOException("Malformed Google prices on line " + lineNumber + ": "
+                + new String(line, 0, lineLength, StandardCharsets.UTF_8));
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -1,9 +1,14 @@
 package org.wkh.bateman.fetch;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
 import org.joda.time.DateTime;
+import org.wkh.bateman.trade.TimeSeries;
 
 public class GoogleQuoteFetcher extends QuoteFetcher {
 
@@ -11,10 +16,29 @@ public class GoogleQuoteFetcher extends QuoteFetcher {
     public String fetchQuotes(String symbol, int days, int interval)
             throws Exception {
 
-        String url = "http://www.google.com/finance/getprices?i=" + interval
-                + "&p=" + days + "d&f=d,o,h,l,c,v&df=cpct&q=" + symbol;
+        return fetchURLasString(pricesURL(symbol, days, interval));
+    }
+
+    /* Parses the response as it arrives rather than going through Strings and Quotes */
+    @Override
+    public TimeSeries fetchAndParse(String symbol, int days, final int interval) throws Exception {
+        return fetchURL(pricesURL(symbol, days, interval), new ResponseHandler<TimeSeries>() {
+            @Override
+            public TimeSeries handleResponse(HttpResponse response) throws IOException {
+                InputStream in = response.getEntity().getContent();
 
-        return fetchURLasString(url);
+                try {
+                    return GooglePriceParser.parse(in, interval);
+                } finally {
+                    in.close();
+                }
+            }
+        });
+    }
+
+    private String pricesURL(String symbol, int days, int interval) {
+        return "http://www.google.com/finance/getprices?i=" + interval
+                + "&p=" + days + "d&f=d,o,h,l,c,v&df=cpct&q=" + symbol;
     }
 
     @Override
@@ -22,6 +46,7 @@ public class GoogleQuoteFetcher extends QuoteFetcher {
         String[] lines = dropLines(quoteList, 6);
 
         List<Quote> quotes = new ArrayList<Quote>();
+        DateTime anchor = null;
 
         for (String line : lines) {
             if (line.startsWith("TIMEZONE_OFFSET")) {
@@ -38,9 +63,9 @@ public class GoogleQuoteFetcher extends QuoteFetcher {
                 final String intPart = dateStr.substring(1);
                 final int timestamp = Integer.parseInt(intPart);
                 date = new DateTime((long) timestamp * 1000L);
+                anchor = date;
             } else {
-                DateTime previousDate = quotes.get(quotes.size() - 1).getOpenDate();
-                date = previousDate.plusSeconds(interval);
+                date = anchor.plusSeconds(Integer.parseInt(dateStr) * interval);
             }
 
             Quote quote = new Quote(date,
@@ -1,17 +1,24 @@
 package org.wkh.bateman.fetch;
 
-import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.TreeMap;
-import org.joda.time.DateTime;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wkh.bateman.trade.Money;
 import org.wkh.bateman.trade.TimeSeries;
 
 public class QuoteCollection {
@@ -19,44 +26,155 @@ public class QuoteCollection {
     private static Logger logger = LoggerFactory.getLogger(QuoteCollection.class.getName());
     private Map<String, TimeSeries> quotes;
 
-    public void QuoteCollection() {
+    public QuoteCollection() {
+        quotes = new ConcurrentHashMap<String, TimeSeries>();
     }
 
     public Map<String, TimeSeries> getQuotes() {
         return quotes;
     }
 
+    /*
+     * Quotes may come in any order (Yahoo's are newest first). Where two share
+     * a time, the later one in the list wins.
+     */
     public TimeSeries convertQuoteToTimeSeries(List<Quote> quotes) throws Exception {
-        TreeMap<DateTime, BigDecimal> prices = new TreeMap<DateTime, BigDecimal>();
+        List<Quote> sorted = new ArrayList<Quote>(quotes);
+
+        Collections.sort(sorted, new Comparator<Quote>() {
+            @Override
+            public int compare(Quote a, Quote b) {
+                return a.getOpenDate().compareTo(b.getOpenDate());
+            }
+        });
+
+        int n = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            if (i + 1 < sorted.size() && sorted.get(i + 1).getOpenDate().isEqual(sorted.get(i).getOpenDate())) {
+                continue;
+            }
+            sorted.set(n++, sorted.get(i));
+        }
+
+        long[] times = new long[n];
+        long[] opens = new long[n];
+        long[] highs = new long[n];
+        long[] lows = new long[n];
+        long[] closes = new long[n];
+        long[] volumes = new long[n];
+
+        for (int i = 0; i < n; i++) {
+            Quote quote = sorted.get(i);
+            times[i] = quote.getOpenDate().getMillis();
+            opens[i] = Money.HALF_EVEN.fromBigDecimal(quote.getOpen());
+            highs[i] = Money.HALF_EVEN.fromBigDecimal(quote.getHigh());
+            lows[i] = Money.HALF_EVEN.fromBigDecimal(quote.getLow());
+            closes[i] = Money.HALF_EVEN.fromBigDecimal(quote.getClose());
+            volumes[i] = quote.getVolume();
+        }
 
-        TimeSeries series = new TimeSeries(prices);
+        return new TimeSeries(times, opens, highs, lows, closes, volumes);
+    }
 
-        for (Quote quote : quotes) {
-            prices.put(quote.getOpenDate(), quote.getOpen());
+    private Properties loadProperties() throws Exception {
+        Properties properties = new Properties();
+        properties.load(ClassLoader.getSystemResourceAsStream("application.properties"));
+        return properties;
+    }
+
+    private List<String> loadSymbols(Properties properties) throws Exception {
+        Path paths = Paths.get(properties.getProperty("symbolPath"));
+        List<String> symbols = new ArrayList<String>();
+
+        for (String symbol : Files.readAllLines(paths, StandardCharsets.UTF_8)) {
+            symbol = symbol.replaceAll("\\s", "");
+
+            if (!symbol.isEmpty()) {
+                symbols.add(symbol);
+            }
         }
 
-        return series;
+        return symbols;
     }
 
     public void fetchAllQuotes(QuoteFetcher fetcher) throws Exception {
         logger.info("Starting quote fetching");
 
-        Properties properties = new Properties();
-        properties.load(ClassLoader.getSystemResourceAsStream("application.properties"));
+        Properties properties = loadProperties();
 
-        String symbolPath = properties.getProperty("symbolPath");
         int days = Integer.parseInt(properties.getProperty("days"));
         int interval = Integer.parseInt(properties.getProperty("interval"));
 
-        Path paths = Paths.get(symbolPath);
-        List<String> symbols = Files.readAllLines(paths, StandardCharsets.UTF_8);
+        for (String symbol : loadSymbols(properties)) {
+            logger.info("Fetching quotes for " + symbol);
+            quotes.put(symbol, fetcher.fetchAndParse(symbol, days, interval));
+        }
 
-        for (String symbol : symbols) {
-            symbol = symbol.replaceAll("\\s", "");
+        logger.info("Done fetching quotes");
+    }
 
-            logger.info("Fetching quotes for " + symbol);
-            List<Quote> quoteList = fetcher.parseQuotes(fetcher.fetchQuotes(symbol, days, interval), interval);
-            quotes.put(symbol, convertQuoteToTimeSeries(quoteList));
+    public void fetchAllQuotesConcurrently(QuoteFetcher fetcher) throws Exception {
+        Properties properties = loadProperties();
+
+        int maxInFlight = Integer.parseInt(properties.getProperty("maxInFlight"));
+        double requestsPerSecond = Double.parseDouble(properties.getProperty("requestsPerSecondPerHost"));
+
+        fetchAllQuotesConcurrently(fetcher, maxInFlight, requestsPerSecond);
+    }
+
+    /*
+     * Fetches every symbol with at most maxInFlight requests outstanding and no
+     * more than requestsPerSecond requests a second to any one host, counting
+     * requests from every fetcher; the previous limit is restored afterwards.
+     * A failed symbol doesn't stop the others; the first failure is rethrown
+     * once every fetch has finished.
+     */
+    public void fetchAllQuotesConcurrently(final QuoteFetcher fetcher, int maxInFlight, double requestsPerSecond) throws Exception {
+        logger.info("Starting concurrent quote fetching");
+
+        Properties properties = loadProperties();
+
+        final int days = Integer.parseInt(properties.getProperty("days"));
+        final int interval = Integer.parseInt(properties.getProperty("interval"));
+
+        List<String> symbols = loadSymbols(properties);
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        ExecutorService executor = Executors.newFixedThreadPool(maxInFlight);
+        double previousRate = QuoteFetcher.getRequestsPerSecondPerHost();
+
+        QuoteFetcher.setRequestsPerSecondPerHost(requestsPerSecond);
+
+        try {
+            for (final String symbol : symbols) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        logger.info("Fetching quotes for " + symbol);
+                        quotes.put(symbol, fetcher.fetchAndParse(symbol, days, interval));
+                        return null;
+                    }
+                }));
+            }
+
+            Exception firstFailure = null;
+
+            for (int i = 0; i < symbols.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException ex) {
+                    logger.error("Failed to fetch quotes for " + symbols.get(i), ex.getCause());
+                    if (firstFailure == null) {
+                        firstFailure = new Exception("Failed to fetch quotes for " + symbols.get(i), ex.getCause());
+                    }
+                }
+            }
+
+            if (firstFailure != null) {
+                throw firstFailure;
+            }
+        } finally {
+            executor.shutdownNow();
+            QuoteFetcher.setRequestsPerSecondPerHost(previousRate);
         }
 
         logger.info("Done fetching quotes");
@@ -65,4 +183,8 @@ public class QuoteCollection {
     public void fetchAllGoogleQuotes() throws Exception {
         fetchAllQuotes(new GoogleQuoteFetcher());
     }
+
+    public void fetchAllGoogleQuotesConcurrently() throws Exception {
+        fetchAllQuotesConcurrently(new GoogleQuoteFetcher());
+    }
 }
@@ -1,40 +1,124 @@
 package org.wkh.bateman.fetch;
 
+import com.google.common.util.concurrent.RateLimiter;
 import java.util.List;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.http.ParseException;
-import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.wkh.bateman.trade.TimeSeries;
 
+/*
+ * All fetchers share one pooled, thread-safe HTTP client so connections to the
+ * quote servers are reused across requests and threads. They also share one
+ * rate limiter per host, so a limit of N requests per second to a host holds
+ * however many fetchers are talking to it.
+ */
 public abstract class QuoteFetcher {
 
+    private static final int MAX_CONNECTIONS = 50;
+    private static final int MAX_CONNECTIONS_PER_HOST = 20;
+    private static HttpClient sharedClient;
+    private static volatile double requestsPerSecondPerHost;
+    private static final ConcurrentMap<String, RateLimiter> rateLimiters = new ConcurrentHashMap<String, RateLimiter>();
+    private HttpClient httpClient = sharedHttpClient();
+
     abstract public String fetchQuotes(String symbol, int days, int interval) throws Exception;
 
     abstract public List<Quote> parseQuotes(String quoteList, int interval);
 
+    public List<Quote> fetchQuoteList(String symbol, int days, int interval) throws Exception {
+        return parseQuotes(fetchQuotes(symbol, days, interval), interval);
+    }
+
     public TimeSeries fetchAndParse(String symbol, int days, int interval) throws Exception {
-        String requestResult = fetchQuotes(symbol, days, interval);
-        List<Quote> parsed = parseQuotes(requestResult, interval);
+        List<Quote> parsed = fetchQuoteList(symbol, days, interval);
 
         QuoteCollection qc = new QuoteCollection();
 
         return qc.convertQuoteToTimeSeries(parsed);
     }
 
+    public static synchronized HttpClient sharedHttpClient() {
+        if (sharedClient == null) {
+            PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+            connectionManager.setMaxTotal(MAX_CONNECTIONS);
+            connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_HOST);
+            sharedClient = new DefaultHttpClient(connectionManager);
+        }
+
+        return sharedClient;
+    }
+
+    public void setHttpClient(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    public static double getRequestsPerSecondPerHost() {
+        return requestsPerSecondPerHost;
+    }
+
+    /* Applies to every fetcher; 0 or less means unlimited */
+    public static void setRequestsPerSecondPerHost(double requestsPerSecondPerHost) {
+        QuoteFetcher.requestsPerSecondPerHost = requestsPerSecondPerHost;
+    }
+
+    /* The host's limiter, created on first use and kept at the current rate */
+    static RateLimiter limiterFor(String host, double rate) {
+        RateLimiter limiter = rateLimiters.get(host);
+
+        if (limiter == null) {
+            RateLimiter created = RateLimiter.create(rate);
+            limiter = rateLimiters.putIfAbsent(host, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+
+        if (limiter.getRate() != rate) {
+            limiter.setRate(rate);
+        }
+
+        return limiter;
+    }
+
+    private static void waitForPermit(String host) {
+        double rate = requestsPerSecondPerHost;
+
+        if (rate <= 0.0) {
+            return;
+        }
+
+        limiterFor(host, rate).acquire();
+    }
+
     protected String fetchURLasString(String url) throws IOException, ParseException {
-        DefaultHttpClient httpclient = new DefaultHttpClient();
+        return fetchURL(url, new ResponseHandler<String>() {
+            @Override
+            public String handleResponse(HttpResponse response) throws IOException {
+                return EntityUtils.toString(response.getEntity());
+            }
+        });
+    }
+
+    /* The handler can read the response body as a stream; it's consumed and the connection released afterwards */
+    protected <T> T fetchURL(String url, ResponseHandler<? extends T> handler) throws IOException {
         HttpGet httpGet = new HttpGet(url);
-        HttpResponse response = httpclient.execute(httpGet);
-        HttpEntity entity = response.getEntity();
-        String body = EntityUtils.toString(entity);
-        EntityUtils.consume(entity);
-        httpGet.releaseConnection();
-        return body;
+        waitForPermit(httpGet.getURI().getHost());
+
+        try {
+            return httpClient.execute(httpGet, handler);
+        } finally {
+            httpGet.releaseConnection();
+        }
     }
 
     protected String[] dropLines(String quoteList, int n) {
@@ -0,0 +1,148 @@
+package org.wkh.bateman.model;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import org.joda.time.DateTime;
+import org.wkh.bateman.pso.BatchFitnessFunction;
+import org.wkh.bateman.trade.Account;
+import org.wkh.bateman.trade.Asset;
+import org.wkh.bateman.trade.Conditions;
+import org.wkh.bateman.trade.Money;
+import org.wkh.bateman.trade.MoneyManagementStrategy;
+import org.wkh.bateman.trade.RunningStatistics;
+import org.wkh.bateman.trade.Session;
+import org.wkh.bateman.trade.TimeSeries;
+
+/*
+ * BuyZoneModel backtests answered a day at a time. A BuyZoneModel opens at
+ * most one trade a day, never on the day's last bar, and closes it by that
+ * bar, so the DayExcursionTable built once for the series gives each day's
+ * entry and exit by binary search, and bars are only read where a trade
+ * actually fills.
+ *
+ * A batch walks the days once, moving every model through each day in turn.
+ * The trades, and so the values, are exactly those of
+ * BuyZoneOptimizer.backtest. Safe to share between threads.
+ */
+public class BuyZoneDayEvaluator implements BatchFitnessFunction {
+
+    private DayExcursionTable table;
+    private Conditions conditions;
+    private MoneyManagementStrategy moneyManager;
+    private BigDecimal initialBalance;
+
+    public BuyZoneDayEvaluator(Asset asset, Conditions conditions, MoneyManagementStrategy moneyManager,
+            int initialBalance) {
+        this(new DayExcursionTable(asset.getTimeSeries()), conditions, moneyManager, initialBalance);
+    }
+
+    BuyZoneDayEvaluator(DayExcursionTable table, Conditions conditions, MoneyManagementStrategy moneyManager,
+            int initialBalance) {
+        this.table = table;
+        this.conditions = conditions;
+        this.moneyManager = moneyManager;
+        this.initialBalance = new BigDecimal(initialBalance);
+    }
+
+    /* x is a buy trigger, sell trigger and stop loss */
+    @Override
+    public double evaluate(double[] x) {
+        return evaluateAll(new double[][]{x})[0];
+    }
+
+    @Override
+    public double[] evaluateAll(double[][] xs) {
+        long[] buys = new long[xs.length];
+        long[] sells = new long[xs.length];
+        long[] stops = new long[xs.length];
+
+        for (int p = 0; p < xs.length; p++) {
+            buys[p] = BuyZoneModel.triggerUnits(xs[p][0]);
+            sells[p] = BuyZoneModel.triggerUnits(xs[p][1]);
+            stops[p] = BuyZoneModel.triggerUnits(xs[p][2]);
+        }
+
+        return evaluateAll(buys, sells, stops);
+    }
+
+    /* The same for triggers already in Money units */
+    double[] evaluateAll(long[] buys, long[] sells, long[] stops) {
+        TimeSeries series = table.getSeries();
+        int n = buys.length;
+        double[] values = new double[n];
+
+        if (series.size() == 0) {
+            Arrays.fill(values, Double.MAX_VALUE);
+            return values;
+        }
+
+        boolean[] done = new boolean[n];
+        Account[] accounts = new Account[n];
+        RunningStatistics[] stats = new RunningStatistics[n];
+
+        for (int p = 0; p < n; p++) {
+            stats[p] = new RunningStatistics();
+
+            try {
+                accounts[p] = new Account(initialBalance, table.dateAt(0), true);
+            } catch (Exception ex) {
+                fail(p, done, values);
+            }
+        }
+
+        for (int d = 0; d < series.dayCount(); d++) {
+            for (int p = 0; p < n; p++) {
+                if (done[p]) {
+                    continue;
+                }
+
+                int entry = table.entryOf(d, buys[p]);
+
+                if (entry < 0) {
+                    continue;
+                }
+
+                int bar = table.entryBar(entry);
+                DateTime date = table.dateAt(bar);
+                int size = moneyManager.sizePosition(accounts[p], date);
+
+                if (size == 0) {
+                    done[p] = true;
+                    continue;
+                }
+
+                long price = series.priceUnitsAt(bar);
+                long cost = conditions.purchaseUnits(price, size);
+                int exitBar = table.exitBar(entry, sells[p], stops[p]);
+                long exit = BuyZoneModel.exitUnits(series.priceUnitsAt(exitBar), series.highUnitsAt(exitBar),
+                        series.lowUnitsAt(exitBar), series.closeUnitsAt(exitBar),
+                        exitBar >= series.closeIndexOnDay(exitBar), price, sells[p], stops[p]);
+                long sale = conditions.saleUnits(exit, size);
+
+                try {
+                    accounts[p].withdraw(cost, date);
+                    // a trade out on its entry bar is closed when the next bar starts
+                    accounts[p].profit(sale, table.dateAt(exitBar == bar ? bar + 1 : exitBar));
+                } catch (Exception ex) {
+                    fail(p, done, values);
+                    continue;
+                }
+
+                stats[p].addValue(Money.toDouble(sale - cost));
+            }
+        }
+
+        for (int p = 0; p < n; p++) {
+            if (values[p] != Double.MAX_VALUE) {
+                values[p] = -Session.sharpeRatio(stats[p]);
+            }
+        }
+
+        return values;
+    }
+
+    private static void fail(int p, boolean[] done, double[] values) {
+        done[p] = true;
+        values[p] = Double.MAX_VALUE;
+    }
+}
@@ -1,15 +1,16 @@
 package org.wkh.bateman.model;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import org.joda.time.DateTime;
 import org.wkh.bateman.trade.Account;
 import org.wkh.bateman.trade.Asset;
 import org.wkh.bateman.trade.Conditions;
+import org.wkh.bateman.trade.Money;
 import org.wkh.bateman.trade.MoneyManagementStrategy;
 import org.wkh.bateman.trade.Rule;
 import org.wkh.bateman.trade.Session;
+import org.wkh.bateman.trade.TimeSeries;
 import org.wkh.bateman.trade.Trade;
 
 /* 
@@ -22,13 +23,29 @@ import org.wkh.bateman.trade.Trade;
  * chart of a time zeries.
  * 
  * It is about the simplest "buy low, sell high model" one could think of.
+ *
+ * Entries happen at a bar's open, and never on the last bar of a day. Exits
+ * look at the whole bar, starting with the entry bar itself: a bar whose
+ * high reaches the sell trigger, or whose low reaches the stop loss, closes
+ * the trade at that level, unless the bar already opened past it, in which
+ * case it fills at the open. When a bar touches both, the stop is assumed to
+ * have come first. A trade still open on the day's last bar is closed at
+ * that bar's close, so nothing is held overnight. This keeps fills just as
+ * accurate on coarser bars.
  */
 public class BuyZoneModel extends Rule {
 
+    static final long NO_EXIT = -1;
+
     private Asset asset;
     private BigDecimal stopLoss;
     private BigDecimal buyTrigger;
     private BigDecimal sellTrigger;
+    // the triggers in Money units, rounded up so that comparing whole units
+    // gives exactly the same answer as comparing against the BigDecimals
+    private long stopLossUnits;
+    private long buyTriggerUnits;
+    private long sellTriggerUnits;
 
     public BuyZoneModel(Account account, Asset asset, Conditions conditions,
             MoneyManagementStrategy moneyManager, double buyTrigger,
@@ -39,27 +56,31 @@ public class BuyZoneModel extends Rule {
         this.buyTrigger = new BigDecimal(buyTrigger);
         this.sellTrigger = new BigDecimal(sellTrigger);
         this.stopLoss = new BigDecimal(stopLoss);
+        this.buyTriggerUnits = triggerUnits(buyTrigger);
+        this.sellTriggerUnits = triggerUnits(sellTrigger);
+        this.stopLossUnits = triggerUnits(stopLoss);
+    }
+
+    static long triggerUnits(double trigger) {
+        return Money.fromBigDecimal(new BigDecimal(trigger), RoundingMode.CEILING);
     }
 
     @Override
     public boolean buy(DateTime time, Session session) {
-        if (session.inMarket(time)) {
+        TimeSeries series = asset.getTimeSeries();
+
+        if (session.inMarket(time) || time.compareTo(series.closeOnDay(time)) >= 0) {
             return false;
         }
 
-        BigDecimal open = asset.getTimeSeries().openOnDay(time);
+        BigDecimal open = series.openOnDay(time);
         BigDecimal current = asset.priceAt(time);
         BigDecimal increase = current.subtract(open);
 
-        final DateTime midnight = time.toDateMidnight().toDateTime();
-        final DateTime nextDay = midnight.plusDays(1);
+        DateTime midnight = time.toDateMidnight().toDateTime();
+        DateTime nextDay = midnight.plusDays(1);
 
-        boolean tradedToday = (Collections2.filter(session.getTrades(), new Predicate<Trade>() {
-            @Override
-            public boolean apply(Trade trade) {
-                return trade.getOpen().compareTo(midnight) > 0 && trade.getClose().compareTo(nextDay) < 0;
-            }
-        })).size() > 0;
+        boolean tradedToday = session.closedTradeWithin(midnight, nextDay);
 
         return !tradedToday && increase.compareTo(buyTrigger) >= 0;
     }
@@ -70,23 +91,91 @@ public class BuyZoneModel extends Rule {
             return false;
         }
 
-        BigDecimal open = asset.getTimeSeries().openOnDay(time);
+        TimeSeries series = asset.getTimeSeries();
+        int index = series.indexOf(time);
         DateTime buyDate = session.lastTrade().getOpen();
         BigDecimal buyPrice = asset.priceAt(buyDate);
-        BigDecimal current = asset.priceAt(time);
-        BigDecimal difference = current.subtract(buyPrice);
+        BigDecimal high = Money.toBigDecimal(series.highUnitsAt(index));
+        BigDecimal low = Money.toBigDecimal(series.lowUnitsAt(index));
 
         // exit if at end of day, if our sell trigger threshold is reached,
         // or if we hit our stop loss
 
-        DateTime endOfDay = asset.getTimeSeries().closeOnDay(time);
+        DateTime endOfDay = series.closeOnDay(time);
 
         boolean atEndOfDay = time.compareTo(endOfDay) >= 0;
 
-        boolean thresholdReached = difference.compareTo(sellTrigger) >= 0;
+        boolean thresholdReached = high.subtract(buyPrice).compareTo(sellTrigger) >= 0;
 
-        boolean stopLossReached = buyPrice.subtract(current).compareTo(stopLoss) >= 0;
+        boolean stopLossReached = buyPrice.subtract(low).compareTo(stopLoss) >= 0;
 
         return atEndOfDay || thresholdReached || stopLossReached;
     }
+
+    @Override
+    public boolean buyAt(int index, Session session) {
+        TimeSeries series = asset.getTimeSeries();
+
+        if (hasOpenPosition() || index >= series.closeIndexOnDay(index)) {
+            return false;
+        }
+
+        long increase = series.priceUnitsAt(index) - series.openUnitsOnDay(index);
+        boolean tradedToday = getLastEntryDay() == series.dayOf(index);
+
+        return !tradedToday && increase >= buyTriggerUnits;
+    }
+
+    @Override
+    public boolean sellAt(int index, Session session) {
+        if (!hasOpenPosition()) {
+            return false;
+        }
+
+        long buyPrice = asset.getTimeSeries().priceUnitsAt(getEntryIndex());
+
+        return exitUnits(index, buyPrice) != NO_EXIT;
+    }
+
+    @Override
+    protected boolean exitsWithinEntryBar() {
+        return true;
+    }
+
+    @Override
+    protected long exitUnitsAt(int index, Trade trade) {
+        long exit = exitUnits(index, trade.openUnits());
+        return exit == NO_EXIT ? super.exitUnitsAt(index, trade) : exit;
+    }
+
+    /* Where a long position bought at buyPrice gets out on the bar at index, or NO_EXIT */
+    private long exitUnits(int index, long buyPrice) {
+        TimeSeries series = asset.getTimeSeries();
+
+        return exitUnits(series.priceUnitsAt(index), series.highUnitsAt(index), series.lowUnitsAt(index),
+                series.closeUnitsAt(index), index >= series.closeIndexOnDay(index), buyPrice, sellTriggerUnits,
+                stopLossUnits);
+    }
+
+    static long exitUnits(long open, long high, long low, long close, boolean lastBarOfDay, long buyPrice,
+            long sellTriggerUnits, long stopLossUnits) {
+        // gapped through a trigger at the open
+        if (open - buyPrice >= sellTriggerUnits || buyPrice - open >= stopLossUnits) {
+            return open;
+        }
+
+        if (buyPrice - low >= stopLossUnits) {
+            return buyPrice - stopLossUnits;
+        }
+
+        if (high - buyPrice >= sellTriggerUnits) {
+            return buyPrice + sellTriggerUnits;
+        }
+
+        if (lastBarOfDay) {
+            return close;
+        }
+
+        return NO_EXIT;
+    }
 }
@@ -1,23 +1,34 @@
 package org.wkh.bateman.model;
 
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.wkh.bateman.fetch.Quote;
-import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wkh.bateman.pso.CachingFitnessFunction;
 import org.wkh.bateman.pso.FitnessFunction;
+import org.wkh.bateman.pso.IslandParticleSwarmOptimizer;
+import org.wkh.bateman.pso.SeedSequence;
 import org.wkh.bateman.pso.SimpleParticleSwarmOptimizer;
+import org.wkh.bateman.pso.StoppingCriteria;
 import org.wkh.bateman.trade.Account;
 import org.wkh.bateman.trade.Asset;
 import org.wkh.bateman.trade.Conditions;
 import org.wkh.bateman.trade.FixedPercentageAllocationStrategy;
+import org.wkh.bateman.fetch.CachingQuoteFetcher;
 import org.wkh.bateman.fetch.GoogleQuoteFetcher;
+import org.wkh.bateman.fetch.QuoteFetcher;
 import org.wkh.bateman.fetch.YahooQuoteFetcher;
 import org.wkh.bateman.trade.MoneyManagementStrategy;
 import org.wkh.bateman.trade.Session;
+import org.wkh.bateman.trade.Money;
 import org.wkh.bateman.trade.TimeSeries;
+import org.wkh.bateman.trade.TimeSeriesType;
 
 /*
  * This is the heart of the project: 
@@ -29,11 +40,58 @@ import org.wkh.bateman.trade.TimeSeries;
  */
 public class BuyZoneOptimizer {
     private static Logger logger = LoggerFactory.getLogger(SimpleParticleSwarmOptimizer.class.getName());
+    private static final long FITNESS_CACHE_SIZE = 100000;
+    private static final int STAGNATION_LIMIT = 20;
+    private static final int RESEED_AFTER = 10;
+    private static final String QUOTE_CACHE_DIRECTORY = "quotecache";
     
-    public static double[] optimizeTriggers(final TimeSeries series, final String symbol, final int days,
+    public static double[] optimizeTriggers(final TimeSeries series, final String symbol,
             double commissions, final double slippage, final int initialBalance, final double allocation,
             final double minBuy, final double minSell, final double minStop, final double maxBuy,
             final double maxSell, final double maxStop, final int generations) throws Exception {
+        return optimizeTriggers(series, symbol, commissions, slippage, initialBalance, allocation,
+                minBuy, minSell, minStop, maxBuy, maxSell, maxStop, generations, null, 0.0);
+    }
+
+    public static double[] optimizeTriggers(final TimeSeries series, final String symbol,
+            double commissions, final double slippage, final int initialBalance, final double allocation,
+            final double minBuy, final double minSell, final double minStop, final double maxBuy,
+            final double maxSell, final double maxStop, final int generations, ExecutorService executor,
+            double cacheTick) throws Exception {
+        return optimizeTriggers(series, symbol, commissions, slippage, initialBalance, allocation,
+                minBuy, minSell, minStop, maxBuy, maxSell, maxStop, generations, executor, cacheTick, 1);
+    }
+
+    /*
+     * Backtests run a day at a time off tables built once for the series
+     * (see BuyZoneDayEvaluator). With one island, each PSO generation is split
+     * across the executor's threads if one is given; with more, that many
+     * swarms run side by side and trade their best particles (see
+     * IslandParticleSwarmOptimizer). A positive cacheTick memoizes backtests
+     * on a grid of that spacing (see CachingFitnessFunction), and the
+     * triggers returned are then the grid point the search's best was scored
+     * at, kept within the bounds.
+     */
+    public static double[] optimizeTriggers(final TimeSeries series, final String symbol,
+            double commissions, final double slippage, final int initialBalance, final double allocation,
+            final double minBuy, final double minSell, final double minStop, final double maxBuy,
+            final double maxSell, final double maxStop, final int generations, ExecutorService executor,
+            double cacheTick, int islands) throws Exception {
+        return optimizeTriggers(series, symbol, commissions, slippage, initialBalance, allocation,
+                minBuy, minSell, minStop, maxBuy, maxSell, maxStop, generations, executor, cacheTick, islands,
+                new StoppingCriteria(), SeedSequence.fresh());
+    }
+
+    /*
+     * As above, but generations is only an upper bound when criteria can stop
+     * the swarms early, and the same seed gives the same triggers whatever the
+     * executor.
+     */
+    public static double[] optimizeTriggers(final TimeSeries series, final String symbol,
+            double commissions, final double slippage, final int initialBalance, final double allocation,
+            final double minBuy, final double minSell, final double minStop, final double maxBuy,
+            final double maxSell, final double maxStop, final int generations, ExecutorService executor,
+            double cacheTick, int islands, StoppingCriteria criteria, long seed) throws Exception {
 
         final Asset asset = new Asset(symbol, series);
 
@@ -41,19 +99,89 @@ public class BuyZoneOptimizer {
 
         final MoneyManagementStrategy moneyManager = new FixedPercentageAllocationStrategy(allocation, asset);
 
-        FitnessFunction fitness = new FitnessFunction() {
+        FitnessFunction backtest = new BuyZoneDayEvaluator(asset, conditions, moneyManager, initialBalance);
+
+        double[] xmin = new double[]{minBuy, minSell, 0.0};
+        double[] xmax = new double[]{maxBuy, maxSell, maxStop};
+
+        CachingFitnessFunction cache = null;
+        FitnessFunction fitness = backtest;
+
+        if (cacheTick > 0.0) {
+            cache = new CachingFitnessFunction(backtest, cacheTick, xmin, xmax, FITNESS_CACHE_SIZE);
+            fitness = cache;
+        }
+
+        double[] best;
+
+        if (islands > 1) {
+            logger.info("Optimizing on " + islands + " islands with seed " + seed);
+            IslandParticleSwarmOptimizer optimizer = new IslandParticleSwarmOptimizer(fitness, xmin, xmax,
+                    generations, islands, seed, executor);
+            optimizer.setStoppingCriteria(criteria);
+            best = optimizer.learn();
+        } else {
+            logger.info("Optimizing with seed " + seed);
+            SimpleParticleSwarmOptimizer optimizer = new SimpleParticleSwarmOptimizer(fitness, xmin, xmax,
+                    generations, seed, executor);
+            optimizer.setStoppingCriteria(criteria);
+            best = optimizer.learn();
+        }
+
+        if (cache != null) {
+            logger.info("Fitness cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+            best = cache.snap(best);
+        }
+
+        return best;
+    }
+
+    /*
+     * The same search solved by BuyZoneTriggerSolver instead of a swarm:
+     * deterministic, and every distinct set of trades in the bounds is tried.
+     */
+    public static double[] solveTriggers(final TimeSeries series, final String symbol, double commissions,
+            final double slippage, final int initialBalance, final double allocation, final double minBuy,
+            final double minSell, final double minStop, final double maxBuy, final double maxSell,
+            final double maxStop) throws Exception {
+
+        final Asset asset = new Asset(symbol, series);
+
+        final Conditions conditions = new Conditions(new BigDecimal(commissions), new BigDecimal(slippage));
+
+        final MoneyManagementStrategy moneyManager = new FixedPercentageAllocationStrategy(allocation, asset);
+
+        BuyZoneTriggerSolver solver = new BuyZoneTriggerSolver(asset, conditions, moneyManager, initialBalance,
+                new double[]{minBuy, minSell, 0.0}, new double[]{maxBuy, maxSell, maxStop});
+
+        double[] best = solver.solve();
+
+        logger.info("Solved in " + solver.getEvaluations() + " backtests, best value " + solver.getBestValue());
+
+        return best;
+    }
+
+    /*
+     * Negated Sharpe ratio of a BuyZoneModel backtest at the triggers x;
+     * thread-safe. The sessions only keep statistics, not trades, and the
+     * accounts only their balance.
+     */
+    public static FitnessFunction backtest(final Asset asset, final Conditions conditions,
+            final MoneyManagementStrategy moneyManager, final int initialBalance) {
+        return new FitnessFunction() {
             public double evaluate(double[] x) {
                 double buyTrigger = x[0];
                 double sellTrigger = x[1];
                 double stopLoss = x[2];
 
                 try {
-                    Account account = new Account(new BigDecimal(initialBalance), DateTime.now().minusDays(days));
+                    TimeSeries series = asset.getTimeSeries();
+                    Account account = new Account(new BigDecimal(initialBalance), series.beginningOfSeries(), true);
 
                     BuyZoneModel model = new BuyZoneModel(account, asset, conditions, moneyManager, buyTrigger, sellTrigger, stopLoss);
 
-                    Session tradingSession = model.generateSignals(asset.getTimeSeries().beginningOfSeries(),
-                            asset.getTimeSeries().lastOfSeries());
+                    Session tradingSession = model.generateIndexedSignals(series.beginningOfSeries(),
+                            series.lastOfSeries(), true);
 
                     //return -tradingSession.grossProfit().doubleValue();
                     return -tradingSession.sharpeRatio();
@@ -64,19 +192,14 @@ public class BuyZoneOptimizer {
                 }
             }
         };
-
-        double[] xmin = new double[]{minBuy, minSell, 0.0};
-        double[] xmax = new double[]{maxBuy, maxSell, maxStop};
-
-        SimpleParticleSwarmOptimizer optimizer = new SimpleParticleSwarmOptimizer(fitness, xmin, xmax, generations);
-
-        return optimizer.learn();
     }
 
     public static double getMedianHighOpenSpread(String symbol, int days) throws Exception {
-        YahooQuoteFetcher yahooFetcher = new YahooQuoteFetcher();
-        String quoteStr = yahooFetcher.fetchQuotes(symbol, days, 60*60*24);
-        List<Quote> dailyQuoteList = yahooFetcher.parseQuotes(quoteStr, 60*60*24);
+        return getMedianHighOpenSpread(new YahooQuoteFetcher(), symbol, days);
+    }
+
+    public static double getMedianHighOpenSpread(QuoteFetcher dailyFetcher, String symbol, int days) throws Exception {
+        List<Quote> dailyQuoteList = dailyFetcher.fetchQuoteList(symbol, days, 60*60*24);
         
         DescriptiveStatistics stats = new DescriptiveStatistics();
         
@@ -87,28 +210,44 @@ public class BuyZoneOptimizer {
         return stats.getPercentile(50);
     }
     
+    /* The same statistic taken from daily bars resampled from intraday ones */
+    public static double getMedianHighOpenSpread(TimeSeries intraday) throws Exception {
+        TimeSeries daily = intraday.resample(TimeSeriesType.DAILY);
+
+        DescriptiveStatistics stats = new DescriptiveStatistics();
+
+        for (int i = 0; i < daily.size(); i++) {
+            stats.addValue(Money.toDouble(daily.highUnitsAt(i) - daily.priceUnitsAt(i)));
+        }
+
+        return stats.getPercentile(50);
+    }
+    
     public static void main(String[] args) throws Exception {
 
         int days = 30;
         String symbol = args.length > 0 ? args[0] : "AAPL"; // default to AAPL if nothing provided
+        boolean solve = args.length > 1 && args[1].equals("solve"); // exact solver instead of PSO
         
         logger.info("Fetching data for symbol " + symbol);
         
-        double yearlyMedianDailyIncrease = getMedianHighOpenSpread(symbol, 365);
-        
-        GoogleQuoteFetcher fetcher = new GoogleQuoteFetcher();
+        Path cacheDirectory = Paths.get(QUOTE_CACHE_DIRECTORY);
+
+        QuoteFetcher fetcher = new CachingQuoteFetcher(new GoogleQuoteFetcher(), cacheDirectory);
 
         TimeSeries series = fetcher.fetchAndParse(symbol, days, 60); // one minute
-        BigDecimal firstPrice = series.getPrices().firstEntry().getValue();
+
+        double medianDailyIncrease = getMedianHighOpenSpread(series);
+        BigDecimal firstPrice = series.priceAt(series.beginningOfSeries());
         
         BigDecimal lastBidAskSpread = new YahooQuoteFetcher().fetchBidAskSpread(symbol);
         
         final double minBuy = 0; // allow buying at open price
         final double minSell = firstPrice.multiply(new BigDecimal("0.002")).doubleValue(); // 0.2% of first price to sell (which is hopefully on the order of twice the bid-ask spread)
         final double minStop = minSell;
-        final double maxBuy = yearlyMedianDailyIncrease;
-        final double maxSell = yearlyMedianDailyIncrease;
-        final double maxStop = yearlyMedianDailyIncrease;
+        final double maxBuy = medianDailyIncrease;
+        final double maxSell = medianDailyIncrease;
+        final double maxStop = medianDailyIncrease;
 
         logger.info("Minimum buy:" + minBuy);
         logger.info("Minimum sell: " + minSell);
@@ -121,14 +260,30 @@ public class BuyZoneOptimizer {
         final double slippage = 1.0E-3; // 0.1% mean slippage on each side of a trade, which should also account for bid-ask spread
         final int initialBalance = 100000; // $100,000 to start with
         final double accountAllocation = 0.75; // risk 75% of capital
-        final int generations = 100; // generations to train for
+        final int generations = 100; // most generations to train for
 
-        DateTime today = DateTime.now();
+        StoppingCriteria criteria = new StoppingCriteria();
+        criteria.setStagnationLimit(STAGNATION_LIMIT);
+        criteria.setReseedAfter(RESEED_AFTER);
 
+        double[] bestOffsets;
 
-        double[] bestOffsets = optimizeTriggers(series, symbol, days, commission,
-                slippage, initialBalance, accountAllocation, minBuy,
-                minSell, minStop, maxBuy, maxSell, maxStop, generations);
+        if (solve) {
+            bestOffsets = solveTriggers(series, symbol, commission, slippage, initialBalance,
+                    accountAllocation, minBuy, minSell, minStop, maxBuy, maxSell, maxStop);
+        } else {
+            int processors = Runtime.getRuntime().availableProcessors();
+            ExecutorService executor = Executors.newFixedThreadPool(processors);
+
+            try {
+                bestOffsets = optimizeTriggers(series, symbol, commission,
+                        slippage, initialBalance, accountAllocation, minBuy,
+                        minSell, minStop, maxBuy, maxSell, maxStop, generations, executor, 0.01, processors, criteria,
+                        SeedSequence.fresh());
+            } finally {
+                executor.shutdown();
+            }
+        }
 
         double buyTrigger = bestOffsets[0];
         double sellTrigger = bestOffsets[1];
@@ -140,7 +295,7 @@ public class BuyZoneOptimizer {
 
         Asset asset = new Asset(symbol, series);
 
-        Account account = new Account(new BigDecimal(initialBalance), today.minusDays(days));
+        Account account = new Account(new BigDecimal(initialBalance), series.beginningOfSeries());
 
         Conditions conditions = new Conditions(new BigDecimal(commission), new BigDecimal(slippage));
         MoneyManagementStrategy moneyManager = new FixedPercentageAllocationStrategy(accountAllocation, asset);
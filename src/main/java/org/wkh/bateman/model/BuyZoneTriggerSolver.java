@@ -0,0 +1,253 @@
+package org.wkh.bateman.model;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import org.wkh.bateman.trade.Asset;
+import org.wkh.bateman.trade.Conditions;
+import org.wkh.bateman.trade.Money;
+import org.wkh.bateman.trade.MoneyManagementStrategy;
+import org.wkh.bateman.trade.TimeSeries;
+
+/*
+ * Searches BuyZoneModel triggers exhaustively for the best Sharpe ratio,
+ * rather than sampling them like SimpleParticleSwarmOptimizer.
+ *
+ * Which trades a backtest makes, on which bars, only depends on how the
+ * triggers compare with price moves the series actually contains, so it only
+ * changes where a trigger crosses one of them. The solver lists those
+ * breakpoints from a DayExcursionTable and backtests one point of every cell
+ * of the lattice they cut the bounds into with a BuyZoneDayEvaluator.
+ *
+ * Inside a cell only the fills at the sell trigger and stop loss move, and
+ * with them the balance later positions are sized from. Each cell is tried at
+ * the corner with the best fills, its highest sell trigger and tightest stop.
+ * Whole-share sizing can still leave some other point of a cell a little
+ * better, so the result is not guaranteed to be the global optimum.
+ *
+ * Two things keep the lattice small. Each buy trigger only brings in the
+ * reach and drop records of the entries it actually takes. And for a given
+ * buy trigger and stop loss, a sell trigger can only matter at a reach record
+ * at or before the bar each trade is stopped out on, so the others are
+ * skipped.
+ *
+ * The value reported is the one BuyZoneOptimizer.backtest gives the result.
+ * Ties go to the smallest buy trigger, then stop loss, then sell trigger.
+ */
+public class BuyZoneTriggerSolver {
+
+    private DayExcursionTable table;
+    private BuyZoneDayEvaluator evaluator;
+    private double[] xmin;
+    private double[] xmax;
+    private long evaluations;
+    private double bestValue;
+
+    /* Bounds on the buy trigger, sell trigger and stop loss, as for the optimizer */
+    public BuyZoneTriggerSolver(Asset asset, Conditions conditions, MoneyManagementStrategy moneyManager,
+            int initialBalance, double[] xmin, double[] xmax) {
+        this.table = new DayExcursionTable(asset.getTimeSeries());
+        this.evaluator = new BuyZoneDayEvaluator(table, conditions, moneyManager, initialBalance);
+        this.xmin = xmin;
+        this.xmax = xmax;
+    }
+
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /* Fitness of the last solution, the negated Sharpe ratio */
+    public double getBestValue() {
+        return bestValue;
+    }
+
+    public double[] solve() {
+        long[] lo = new long[3];
+        long[] hi = new long[3];
+
+        for (int d = 0; d < 3; d++) {
+            lo[d] = BuyZoneModel.triggerUnits(xmin[d]);
+            hi[d] = BuyZoneModel.triggerUnits(xmax[d]);
+        }
+
+        evaluations = 0;
+        bestValue = Double.MAX_VALUE;
+        long[] best = new long[]{lo[0], lo[1], lo[2]};
+
+        int days = table.getSeries().dayCount();
+        int[] entries = new int[days];
+        int[] stoppedAt = new int[days];
+
+        long[] buys = upperEnds(entryRises(), lo[0], hi[0]);
+
+        for (long buy : buys) {
+            for (int d = 0; d < days; d++) {
+                entries[d] = table.entryOf(d, buy);
+            }
+
+            long[] stops = lowerEnds(drops(entries), lo[2], hi[2]);
+
+            for (long stop : stops) {
+                for (int d = 0; d < days; d++) {
+                    stoppedAt[d] = entries[d] < 0 ? -1 : stopBar(entries[d], stop);
+                }
+
+                long[] sells = upperEnds(reaches(entries, stoppedAt), lo[1], hi[1]);
+                double[] values = evaluate(buy, sells, stop);
+
+                for (int k = 0; k < sells.length; k++) {
+                    if (values[k] < bestValue) {
+                        bestValue = values[k];
+                        best[0] = buy;
+                        best[1] = sells[k];
+                        best[2] = stop;
+                    }
+                }
+            }
+        }
+
+        double[] solution = new double[3];
+
+        for (int d = 0; d < 3; d++) {
+            solution[d] = best[d] == lo[d] ? xmin[d] : best[d] == hi[d] ? xmax[d] : triggerValue(best[d]);
+        }
+
+        return solution;
+    }
+
+    double evaluate(long buy, long sell, long stop) {
+        return evaluate(buy, new long[]{sell}, stop)[0];
+    }
+
+    /* Every sell trigger for one buy trigger and stop loss, in a single walk over the days */
+    private double[] evaluate(long buy, long[] sells, long stop) {
+        long[] buys = new long[sells.length];
+        long[] stops = new long[sells.length];
+
+        Arrays.fill(buys, buy);
+        Arrays.fill(stops, stop);
+        evaluations += sells.length;
+
+        return evaluator.evaluateAll(buys, sells, stops);
+    }
+
+    /* The bar a trade from entry is stopped out on at stop, or the last it can be held to */
+    private int stopBar(int entry, long stop) {
+        return table.exitBar(entry, Long.MAX_VALUE, stop);
+    }
+
+    private long[] entryRises() {
+        TimeSeries series = table.getSeries();
+        int days = series.dayCount();
+        long[] rises = new long[days == 0 ? 0 : table.entryLimit(days - 1)];
+
+        for (int e = 0; e < rises.length; e++) {
+            int bar = table.entryBar(e);
+            rises[e] = series.priceUnitsAt(bar) - series.openUnitsOnDay(bar);
+        }
+
+        return rises;
+    }
+
+    private long[] drops(int[] entries) {
+        int count = 0;
+
+        for (int entry : entries) {
+            if (entry >= 0) {
+                count += table.downLimit(entry) - table.downStart(entry);
+            }
+        }
+
+        long[] drops = new long[count];
+        count = 0;
+
+        for (int entry : entries) {
+            if (entry >= 0) {
+                for (int r = table.downStart(entry); r < table.downLimit(entry); r++) {
+                    drops[count++] = table.downReach(r);
+                }
+            }
+        }
+
+        return drops;
+    }
+
+    private long[] reaches(int[] entries, int[] until) {
+        int count = 0;
+
+        for (int d = 0; d < entries.length; d++) {
+            if (entries[d] >= 0) {
+                count += table.upLimit(entries[d]) - table.upStart(entries[d]);
+            }
+        }
+
+        long[] reaches = new long[count];
+        count = 0;
+
+        for (int d = 0; d < entries.length; d++) {
+            if (entries[d] >= 0) {
+                for (int r = table.upStart(entries[d]); r < table.upLimit(entries[d]) && table.upBar(r) <= until[d]; r++) {
+                    reaches[count++] = table.upReach(r);
+                }
+            }
+        }
+
+        return Arrays.copyOf(reaches, count);
+    }
+
+    /*
+     * The top of each cell that the breakpoints cut [lo, hi] into. A
+     * threshold t only matters through which moves reach it, which stays the
+     * same from just above one breakpoint up to the next.
+     */
+    static long[] upperEnds(long[] breakpoints, long lo, long hi) {
+        long[] sorted = sorted(breakpoints);
+        long[] ends = new long[sorted.length + 1];
+        int count = 0;
+
+        for (long breakpoint : sorted) {
+            if (breakpoint >= lo && breakpoint < hi && (count == 0 || breakpoint > ends[count - 1])) {
+                ends[count++] = breakpoint;
+            }
+        }
+
+        ends[count++] = hi;
+        return Arrays.copyOf(ends, count);
+    }
+
+    /* The bottom of each of the same cells */
+    static long[] lowerEnds(long[] breakpoints, long lo, long hi) {
+        long[] sorted = sorted(breakpoints);
+        long[] ends = new long[sorted.length + 1];
+        int count = 0;
+        ends[count++] = lo;
+
+        for (long breakpoint : sorted) {
+            if (breakpoint >= lo && breakpoint < hi && breakpoint + 1 > ends[count - 1]) {
+                ends[count++] = breakpoint + 1;
+            }
+        }
+
+        return Arrays.copyOf(ends, count);
+    }
+
+    private static long[] sorted(long[] values) {
+        long[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /* A trigger that BuyZoneModel rounds to exactly units */
+    static double triggerValue(long units) {
+        double value = new BigDecimal(units).movePointLeft(Money.SCALE).doubleValue();
+
+        while (BuyZoneModel.triggerUnits(value) > units) {
+            value = Math.nextDown(value);
+        }
+
+        while (BuyZoneModel.triggerUnits(value) < units) {
+            value = Math.nextUp(value);
+        }
+
+        return value;
+    }
+}
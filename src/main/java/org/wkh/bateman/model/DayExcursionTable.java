@@ -0,0 +1,211 @@
+package org.wkh.bateman.model;
+
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import java.util.ArrayList;
+import java.util.List;
+import org.joda.time.DateTime;
+import org.wkh.bateman.trade.TimeSeries;
+
+/*
+ * Per-day move tables for BuyZoneModel backtests over one series.
+ *
+ * A BuyZoneModel is always flat at the start of a day, so with a buy trigger
+ * b it enters on the first bar before the day's last whose rise above the
+ * day's open reaches b, which is always a bar where the rise sets a new high
+ * for the day. Those bars are the day's entries.
+ *
+ * From an entry at price p, a trade exits on the first bar, starting with the
+ * entry bar, whose reach above p, max(open, high) - p, meets the sell
+ * trigger, or whose drop below it, p - min(open, low), meets the stop loss,
+ * and otherwise on the day's last bar. Again only bars that set a new high
+ * reach or drop can be first, so each entry keeps just those, in bar order,
+ * with strictly increasing amounts.
+ */
+class DayExcursionTable {
+
+    private TimeSeries series;
+    // entries of day d are entryOffset[d] until entryOffset[d + 1]
+    private int[] entryOffset;
+    private int[] entryBars;
+    private long[] entryRises;
+    // last bar of each entry's day, where a trade from it is closed at the latest
+    private int[] entryEnds;
+    // records of entry e are upOffset[e] until upOffset[e + 1], and the same for downs
+    private int[] upOffset;
+    private int[] upBars;
+    private long[] upReach;
+    private int[] downOffset;
+    private int[] downBars;
+    private long[] downReach;
+    private DateTime[] dates;
+
+    DayExcursionTable(TimeSeries series) {
+        this.series = series;
+        this.dates = new DateTime[series.size()];
+
+        int days = series.dayCount();
+
+        List<Integer> bars = new ArrayList<Integer>();
+        List<Long> rises = new ArrayList<Long>();
+        List<Integer> ends = new ArrayList<Integer>();
+        List<Integer> ups = new ArrayList<Integer>();
+        List<Long> upAmounts = new ArrayList<Long>();
+        List<Integer> downs = new ArrayList<Integer>();
+        List<Long> downAmounts = new ArrayList<Long>();
+
+        entryOffset = new int[days + 1];
+        List<Integer> upOffsets = new ArrayList<Integer>();
+        List<Integer> downOffsets = new ArrayList<Integer>();
+
+        for (int d = 0; d < days; d++) {
+            entryOffset[d] = bars.size();
+
+            int first = series.firstBarOfDay(d);
+            int end = series.lastBarOfDay(d);
+            long dayOpen = series.priceUnitsAt(first);
+            long best = Long.MIN_VALUE;
+
+            for (int i = first; i < end; i++) {
+                long rise = series.priceUnitsAt(i) - dayOpen;
+
+                if (rise <= best) {
+                    continue;
+                }
+
+                best = rise;
+                bars.add(i);
+                rises.add(rise);
+                ends.add(end);
+                upOffsets.add(ups.size());
+                downOffsets.add(downs.size());
+
+                long price = series.priceUnitsAt(i);
+                long bestUp = Long.MIN_VALUE;
+                long bestDown = Long.MIN_VALUE;
+
+                for (int j = i; j <= end; j++) {
+                    long up = Math.max(series.priceUnitsAt(j), series.highUnitsAt(j)) - price;
+                    long down = price - Math.min(series.priceUnitsAt(j), series.lowUnitsAt(j));
+
+                    if (up > bestUp) {
+                        bestUp = up;
+                        ups.add(j);
+                        upAmounts.add(up);
+                    }
+
+                    if (down > bestDown) {
+                        bestDown = down;
+                        downs.add(j);
+                        downAmounts.add(down);
+                    }
+                }
+            }
+        }
+
+        entryOffset[days] = bars.size();
+        upOffsets.add(ups.size());
+        downOffsets.add(downs.size());
+
+        entryBars = Ints.toArray(bars);
+        entryRises = Longs.toArray(rises);
+        entryEnds = Ints.toArray(ends);
+        upOffset = Ints.toArray(upOffsets);
+        upBars = Ints.toArray(ups);
+        upReach = Longs.toArray(upAmounts);
+        downOffset = Ints.toArray(downOffsets);
+        downBars = Ints.toArray(downs);
+        downReach = Longs.toArray(downAmounts);
+    }
+
+    TimeSeries getSeries() {
+        return series;
+    }
+
+    DateTime dateAt(int bar) {
+        DateTime date = dates[bar];
+
+        if (date == null) {
+            date = series.dateAt(bar);
+            dates[bar] = date;
+        }
+
+        return date;
+    }
+
+    int entryLimit(int day) {
+        return entryOffset[day + 1];
+    }
+
+    int entryBar(int entry) {
+        return entryBars[entry];
+    }
+
+    /* Entry taken on the day with a buy trigger of buyUnits, or -1 */
+    int entryOf(int day, long buyUnits) {
+        int at = firstAtLeast(entryRises, entryOffset[day], entryOffset[day + 1], buyUnits);
+        return at < entryOffset[day + 1] ? at : -1;
+    }
+
+    int upStart(int entry) {
+        return upOffset[entry];
+    }
+
+    int upLimit(int entry) {
+        return upOffset[entry + 1];
+    }
+
+    int upBar(int record) {
+        return upBars[record];
+    }
+
+    long upReach(int record) {
+        return upReach[record];
+    }
+
+    int downStart(int entry) {
+        return downOffset[entry];
+    }
+
+    int downLimit(int entry) {
+        return downOffset[entry + 1];
+    }
+
+    long downReach(int record) {
+        return downReach[record];
+    }
+
+    /* Bar a trade from the entry exits on */
+    int exitBar(int entry, long sellUnits, long stopUnits) {
+        int exit = entryEnds[entry];
+
+        int up = firstAtLeast(upReach, upOffset[entry], upOffset[entry + 1], sellUnits);
+        if (up < upOffset[entry + 1]) {
+            exit = Math.min(exit, upBars[up]);
+        }
+
+        int down = firstAtLeast(downReach, downOffset[entry], downOffset[entry + 1], stopUnits);
+        if (down < downOffset[entry + 1]) {
+            exit = Math.min(exit, downBars[down]);
+        }
+
+        return exit;
+    }
+
+    /* First index from from until to holding at least value, or to; values strictly increase */
+    private static int firstAtLeast(long[] values, int from, int to, long value) {
+        int lo = from;
+        int hi = to;
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+}
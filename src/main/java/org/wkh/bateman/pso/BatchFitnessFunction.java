@@ -0,0 +1,11 @@
+package org.wkh.bateman.pso;
+
+/*
+ * A fitness function that can score many points more cheaply together than
+ * one at a time, for instance by making one pass over its data for all of
+ * them. The points must not be modified.
+ */
+public interface BatchFitnessFunction extends FitnessFunction {
+
+    public double[] evaluateAll(double[][] xs);
+}
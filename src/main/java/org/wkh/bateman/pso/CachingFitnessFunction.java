@@ -0,0 +1,218 @@
+package org.wkh.bateman.pso;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/*
+ * Memoizes another fitness function on a grid. Every point is evaluated at
+ * the nearest grid point, a whole number of ticks along each coordinate, and
+ * results are kept in a bounded LRU cache keyed on that grid point. If bounds
+ * are given, a grid point past them is pulled back onto the bound, so points
+ * inside the bounds are never evaluated outside them.
+ *
+ * Always evaluating the grid point keeps results independent of which
+ * particle got there first, but the value given for x is the fitness of
+ * snap(x), not of x: BuyZoneModel's exits fill at the trigger levels, so its
+ * backtests change anywhere between grid points. An optimizer running on the
+ * cache should snap the position it ends up with, whose fitness is then
+ * exactly the value it was ranked by.
+ *
+ * Batches look up every point first and pass only the distinct missing grid points
+ * on, in one batch if the wrapped function takes them.
+ *
+ * Safe to share between threads if the wrapped function is.
+ */
+public class CachingFitnessFunction implements BatchFitnessFunction {
+
+    private FitnessFunction fitness;
+    private double[] ticks;
+    private double[] xmin;
+    private double[] xmax;
+    private Cache<GridPoint, Double> cache;
+
+    public CachingFitnessFunction(FitnessFunction fitness, double tick, int dimensions, long maximumSize) {
+        this(fitness, filled(tick, dimensions), maximumSize);
+    }
+
+    public CachingFitnessFunction(FitnessFunction fitness, double[] ticks, long maximumSize) {
+        this(fitness, ticks, filled(Double.NEGATIVE_INFINITY, ticks.length),
+                filled(Double.POSITIVE_INFINITY, ticks.length), maximumSize);
+    }
+
+    public CachingFitnessFunction(FitnessFunction fitness, double tick, double[] xmin, double[] xmax,
+            long maximumSize) {
+        this(fitness, filled(tick, xmin.length), xmin, xmax, maximumSize);
+    }
+
+    public CachingFitnessFunction(FitnessFunction fitness, double[] ticks, double[] xmin, double[] xmax,
+            long maximumSize) {
+        if (xmin.length != ticks.length || xmax.length != ticks.length) {
+            throw new IllegalArgumentException("Ticks and bounds must have the same dimensions");
+        }
+
+        for (int d = 0; d < ticks.length; d++) {
+            if (ticks[d] <= 0.0) {
+                throw new IllegalArgumentException("Tick sizes must be positive");
+            }
+            if (xmin[d] > xmax[d]) {
+                throw new IllegalArgumentException("Lower bounds must not exceed upper bounds");
+            }
+        }
+
+        this.fitness = fitness;
+        this.ticks = ticks;
+        this.xmin = xmin;
+        this.xmax = xmax;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    private static double[] filled(double value, int dimensions) {
+        double[] values = new double[dimensions];
+        Arrays.fill(values, value);
+        return values;
+    }
+
+    private GridPoint cellOf(double[] x) {
+        long[] cells = new long[x.length];
+
+        for (int d = 0; d < x.length; d++) {
+            long cell = Math.round(x[d] / ticks[d]);
+            cell = Math.max(cell, Math.round(xmin[d] / ticks[d]));
+            cells[d] = Math.min(cell, Math.round(xmax[d] / ticks[d]));
+        }
+
+        return new GridPoint(cells);
+    }
+
+    private double[] coordinates(GridPoint point) {
+        double[] x = new double[ticks.length];
+
+        for (int d = 0; d < ticks.length; d++) {
+            x[d] = Math.min(Math.max(point.cells[d] * ticks[d], xmin[d]), xmax[d]);
+        }
+
+        return x;
+    }
+
+    /* The point x is evaluated at */
+    public double[] snap(double[] x) {
+        return coordinates(cellOf(x));
+    }
+
+    @Override
+    public double evaluate(double[] x) {
+        final GridPoint point = cellOf(x);
+
+        try {
+            return cache.get(point, new Callable<Double>() {
+                @Override
+                public Double call() {
+                    return fitness.evaluate(coordinates(point));
+                }
+            });
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Fitness evaluation failed", ex.getCause());
+        } catch (UncheckedExecutionException ex) {
+            throw new IllegalStateException("Fitness evaluation failed", ex.getCause());
+        }
+    }
+
+    @Override
+    public double[] evaluateAll(double[][] xs) {
+        double[] values = new double[xs.length];
+        GridPoint[] points = new GridPoint[xs.length];
+        Map<GridPoint, Integer> missing = new LinkedHashMap<GridPoint, Integer>();
+
+        for (int i = 0; i < xs.length; i++) {
+            points[i] = cellOf(xs[i]);
+            Double cached = cache.getIfPresent(points[i]);
+
+            if (cached != null) {
+                values[i] = cached;
+            } else if (!missing.containsKey(points[i])) {
+                missing.put(points[i], missing.size());
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return values;
+        }
+
+        List<GridPoint> misses = new ArrayList<GridPoint>(missing.keySet());
+        double[][] snapped = new double[misses.size()][];
+
+        for (int m = 0; m < snapped.length; m++) {
+            snapped[m] = coordinates(misses.get(m));
+        }
+
+        double[] computed;
+
+        if (fitness instanceof BatchFitnessFunction) {
+            computed = ((BatchFitnessFunction) fitness).evaluateAll(snapped);
+        } else {
+            computed = new double[snapped.length];
+            for (int m = 0; m < snapped.length; m++) {
+                computed[m] = fitness.evaluate(snapped[m]);
+            }
+        }
+
+        for (int m = 0; m < computed.length; m++) {
+            cache.put(misses.get(m), computed[m]);
+        }
+
+        for (int i = 0; i < xs.length; i++) {
+            Integer m = missing.get(points[i]);
+            if (m != null) {
+                values[i] = computed[m];
+            }
+        }
+
+        return values;
+    }
+
+    public long getHits() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMisses() {
+        return cache.stats().missCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private static class GridPoint {
+
+        private long[] cells;
+
+        GridPoint(long[] cells) {
+            this.cells = cells;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            return Arrays.equals(cells, ((GridPoint) o).cells);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(cells);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.wkh.bateman.pso;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Island-model PSO: several independent SimpleParticleSwarmOptimizers, one
+ * per thread, each seeded with its own stream of the master seed (see
+ * SeedSequence), that every so many generations pass their best particle on
+ * to the next island around a ring. A migrant takes the place of the
+ * receiving swarm's worst particle if it's better.
+ *
+ * The islands run in epochs of one migration interval. Every island finishes
+ * an epoch before the migrants are exchanged, on the calling thread, so for a
+ * given seed the result doesn't depend on the executor or how many threads it
+ * has. With fewer threads than islands, some islands simply run their part of
+ * an epoch after others.
+ *
+ * Each island applies the StoppingCriteria on its own; one that stops early
+ * still passes on its best particle. Only a time limit makes results depend
+ * on timing.
+ *
+ * The fitness function is called from every island's thread at once, so it
+ * must be thread-safe.
+ */
+public class IslandParticleSwarmOptimizer {
+
+    private static Logger logger = LoggerFactory.getLogger(IslandParticleSwarmOptimizer.class.getName());
+    private static final int MIGRATION_INTERVAL = 10;
+    private FitnessFunction fitness;
+    private double[] xmin;
+    private double[] xmax;
+    private int generations;
+    private int islands;
+    private int migrationInterval;
+    private long seed;
+    private ExecutorService executor;
+    private StoppingCriteria criteria = new StoppingCriteria();
+    private double[] best;
+    private double bestVal;
+
+    public IslandParticleSwarmOptimizer(FitnessFunction fitness, double[] xmin, double[] xmax, int generations,
+            int islands, long seed, ExecutorService executor) {
+        this(fitness, xmin, xmax, generations, islands, MIGRATION_INTERVAL, seed, executor);
+    }
+
+    /* Without an executor each island gets a thread of its own */
+    public IslandParticleSwarmOptimizer(FitnessFunction fitness, double[] xmin, double[] xmax, int generations,
+            int islands, int migrationInterval, long seed, ExecutorService executor) {
+        if (islands < 1 || migrationInterval < 1) {
+            throw new IllegalArgumentException("Need at least one island and a positive migration interval");
+        }
+
+        this.fitness = fitness;
+        this.xmin = xmin;
+        this.xmax = xmax;
+        this.generations = generations;
+        this.islands = islands;
+        this.migrationInterval = migrationInterval;
+        this.seed = seed;
+        this.executor = executor;
+    }
+
+    public double[] learn() {
+        final SimpleParticleSwarmOptimizer[] swarms = new SimpleParticleSwarmOptimizer[islands];
+        final boolean[] stopped = new boolean[islands];
+        double[][] sent = new double[islands][];
+        ExecutorService pool = executor == null ? Executors.newFixedThreadPool(islands) : executor;
+
+        try {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(islands);
+
+            for (int i = 0; i < islands; i++) {
+                final int island = i;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        SimpleParticleSwarmOptimizer swarm = new SimpleParticleSwarmOptimizer(fitness, xmin, xmax,
+                                generations, SeedSequence.streamSeed(seed, island), null);
+                        swarm.setStoppingCriteria(criteria);
+                        swarm.start();
+                        swarms[island] = swarm;
+                        return null;
+                    }
+                });
+            }
+
+            runAll(pool, tasks);
+
+            for (int generation = 0; generation < generations && !allStopped(stopped); generation += migrationInterval) {
+                final int epoch = Math.min(migrationInterval, generations - generation);
+                tasks.clear();
+
+                for (int i = 0; i < islands; i++) {
+                    final int island = i;
+                    tasks.add(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            SimpleParticleSwarmOptimizer swarm = swarms[island];
+
+                            for (int g = 0; g < epoch && !stopped[island]; g++) {
+                                if (swarm.finished()) {
+                                    stopped[island] = true;
+                                } else {
+                                    swarm.step();
+                                }
+                            }
+
+                            return null;
+                        }
+                    });
+                }
+
+                runAll(pool, tasks);
+
+                if (epoch == migrationInterval && islands > 1) {
+                    migrate(swarms, sent);
+                }
+            }
+        } finally {
+            if (executor == null) {
+                pool.shutdown();
+            }
+        }
+
+        best = null;
+        bestVal = Double.MAX_VALUE;
+
+        for (SimpleParticleSwarmOptimizer swarm : swarms) {
+            if (best == null || swarm.getBestValue() < bestVal) {
+                best = swarm.getBest();
+                bestVal = swarm.getBestValue();
+            }
+        }
+
+        logger.info("Best of " + islands + " islands: " + bestVal + " at coords " + Arrays.toString(best));
+
+        return best;
+    }
+
+    public double getBestValue() {
+        return bestVal;
+    }
+
+    public void setStoppingCriteria(StoppingCriteria criteria) {
+        this.criteria = criteria;
+    }
+
+    /*
+     * Every island takes its predecessor's best particle as it was at the end
+     * of the epoch, unless it was already sent.
+     */
+    private void migrate(SimpleParticleSwarmOptimizer[] swarms, double[][] sent) {
+        double[][] positions = new double[islands][];
+        double[] values = new double[islands];
+
+        for (int i = 0; i < islands; i++) {
+            positions[i] = swarms[i].getBest();
+            values[i] = swarms[i].getBestValue();
+        }
+
+        for (int i = 0; i < islands; i++) {
+            int source = (i + islands - 1) % islands;
+
+            // a swarm's best is replaced, never changed in place, when it improves
+            if (positions[source] != sent[source]) {
+                sent[source] = positions[source];
+                swarms[i].immigrate(positions[source], values[source]);
+            }
+        }
+    }
+
+    private static boolean allStopped(boolean[] stopped) {
+        for (boolean island : stopped) {
+            if (!island) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void runAll(ExecutorService pool, List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running the islands", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("An island failed", ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.wkh.bateman.pso;
+
+/*
+ * Splits one master seed into seeds for any number of independent random
+ * streams, with the SplitMix64 mixing function of Steele, Lea and Flood's
+ * splittable generator. Stream i of a master seed is the same however many
+ * streams there are and whichever thread asks for it, so parallel work that
+ * draws from stream i for unit i is reproducible from the master seed alone.
+ *
+ * MersenneTwisterFast(long) only keeps the low 32 bits of a seed, so
+ * generators made here are seeded from all 64.
+ */
+public final class SeedSequence {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private SeedSequence() {
+    }
+
+    /* A seed that differs from run to run, for callers to log so the run can be repeated */
+    public static long fresh() {
+        return mix(System.nanoTime() ^ mix(System.currentTimeMillis()));
+    }
+
+    /* Seed of stream number stream of master */
+    public static long streamSeed(long master, int stream) {
+        return mix(master + (stream + 1L) * GOLDEN_GAMMA);
+    }
+
+    public static MersenneTwisterFast generator(long seed) {
+        long a = mix(seed + GOLDEN_GAMMA);
+        long b = mix(seed + 2 * GOLDEN_GAMMA);
+
+        return new MersenneTwisterFast(new int[]{(int) a, (int) (a >>> 32), (int) b, (int) (b >>> 32)});
+    }
+
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
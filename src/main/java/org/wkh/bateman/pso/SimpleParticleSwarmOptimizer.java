@@ -1,20 +1,52 @@
 package org.wkh.bateman.pso;
 
+import com.google.common.base.Ticker;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/* Straightforward implementation of http://en.wikipedia.org/wiki/Particle_swarm_optimization */
+/* Straightforward implementation of http://en.wikipedia.org/wiki/Particle_swarm_optimization
+ *
+ * Each generation is updated synchronously: every particle moves relative to
+ * the global best as of the start of the generation, the whole swarm is
+ * evaluated, on the executor if one is given, and personal and global bests
+ * are then updated in particle order. All random numbers are drawn on the
+ * calling thread in a fixed order, so for a given seed the result is the same
+ * serially as on an executor with any number of threads.
+ *
+ * Seeds are expanded into a generator by SeedSequence. Without one, a fresh
+ * seed is picked and logged so that the run can be repeated; getSeed() has it.
+ *
+ * A BatchFitnessFunction scores a whole generation in one call. Given an
+ * executor too, the swarm is split into a fixed number of batches, eight
+ * unless setBatches says otherwise, so that a function with state per batch
+ * gives the same results on any machine.
+ *
+ * StoppingCriteria can end learn() early, checked before each generation, and
+ * restart stuck particles; getStopReason() says which limit ended the run.
+ */
 public class SimpleParticleSwarmOptimizer {
 
+    public enum StopReason {
+
+        GENERATIONS, STAGNATION, CONVERGED, TIME_LIMIT, EVALUATION_LIMIT
+    }
+
     private static Logger logger = LoggerFactory.getLogger(SimpleParticleSwarmOptimizer.class.getName());
     private static final int SWARM_SIZE = 30;
+    private static final int BATCHES = 8;
     private static final double omega = 0.999; // acceleration coefficient (ω in Wikipedia's velocity equation)
     private static final double c1 = 1.5;
     private static final double c2 = 1.5;
+    private long seed;
     private MersenneTwisterFast rng;
-    // this might seem a poor abstraction, but actually it winds up being less 
+    // this might seem a poor abstraction, but actually it winds up being less
     // tedious than having an array of objects
     // this is because Java is a fucking piece of shit
     private double[][] x;
@@ -28,19 +60,41 @@ public class SimpleParticleSwarmOptimizer {
     private double[] xmin;
     private double[] xmax;
     private int generations;
+    private ExecutorService executor;
+    private int batches = BATCHES;
+    private StoppingCriteria criteria = new StoppingCriteria();
+    private long evaluations;
+    private int generationsRun;
+    // generations since the global best, and each personal best, last improved
+    private int stagnantGenerations;
+    private int[] stagnantParticle;
+    private Ticker ticker = Ticker.systemTicker();
+    private long startNanos;
+    private StopReason stopReason;
 
     public SimpleParticleSwarmOptimizer(FitnessFunction fitness, double[] xmin, double[] xmax, int generations) {
+        this(fitness, xmin, xmax, generations, SeedSequence.fresh(), null);
+        logger.info("Particle swarm seeded with " + seed);
+    }
+
+    public SimpleParticleSwarmOptimizer(FitnessFunction fitness, double[] xmin, double[] xmax, int generations, long seed) {
+        this(fitness, xmin, xmax, generations, seed, null);
+    }
+
+    public SimpleParticleSwarmOptimizer(FitnessFunction fitness, double[] xmin, double[] xmax, int generations,
+            long seed, ExecutorService executor) {
         this.fitness = fitness;
         this.xmin = xmin;
         this.xmax = xmax;
         this.generations = generations;
+        this.seed = seed;
+        this.rng = SeedSequence.generator(seed);
+        this.executor = executor;
 
         this.n = xmin.length;
 
         x = new double[SWARM_SIZE][n];
 
-        rng = new MersenneTwisterFast();
-
         for (int i = 0; i < SWARM_SIZE; i++) {
             for (int d = 0; d < n; d++) {
                 x[i][d] = randomRange(rng, xmin[d], xmax[d]);
@@ -49,33 +103,26 @@ public class SimpleParticleSwarmOptimizer {
 
         v = new double[SWARM_SIZE][n];
 
-        for (int i = 0; i < n; i++) {
-            for (int d = 0; d < n; d++) {
-                double width = Math.abs(xmax[d] - xmin[d]);
-                v[i][d] = 0.0;
-            }
-
-        }
-
         pbest = new double[SWARM_SIZE][n];
         pbestVal = new double[SWARM_SIZE];
 
-        for (int i = 0; i < n; i++) {
+        stagnantParticle = new int[SWARM_SIZE];
+
+        double[] values = evaluateSwarm();
+        evaluations = SWARM_SIZE;
+
+        for (int i = 0; i < SWARM_SIZE; i++) {
             pbest[i] = Arrays.copyOf(x[i], n);
-            pbestVal[i] = fitness.evaluate(pbest[i]);
+            pbestVal[i] = values[i];
         }
 
-        gbest = x[0];
-
-        gbestVal = fitness.evaluate(gbest);
+        gbest = Arrays.copyOf(x[0], n);
+        gbestVal = values[0];
 
         for (int i = 1; i < SWARM_SIZE; i++) {
-            double[] candidateBest = x[i];
-            double candidateBestVal = fitness.evaluate(candidateBest);
-
-            if (candidateBestVal < gbestVal) {
-                gbest = Arrays.copyOf(candidateBest, n);
-                gbestVal = candidateBestVal;
+            if (values[i] < gbestVal) {
+                gbest = Arrays.copyOf(x[i], n);
+                gbestVal = values[i];
             }
         }
 
@@ -83,38 +130,282 @@ public class SimpleParticleSwarmOptimizer {
     }
 
     public double[] learn() {
-        for (int generation = 1; generation <= generations; generation++) {
+        start();
+
+        for (int generation = 1; generation <= generations && !finished(); generation++) {
             logger.info("Generation " + generation + ": best value " + gbestVal + " at coords " + Arrays.toString(gbest));
 
-            for (int i = 0; i < SWARM_SIZE; i++) {
-                for (int d = 0; d < n; d++) {
-                    double r1 = rng.nextDouble();
-                    double r2 = rng.nextDouble();
+            step();
+        }
 
-                    v[i][d] = omega * v[i][d] + c1 * r1 * (pbest[i][d] - x[i][d]) + c2 * r2 * (gbest[d] - x[i][d]);
-                }
+        if (stopReason != StopReason.GENERATIONS) {
+            logger.info("Stopped after " + generationsRun + " generations: " + stopReason);
+        }
+
+        return gbest;
+    }
+
+    /* How many batches a BatchFitnessFunction's generations are split into on an executor, from the next one on */
+    public void setBatches(int batches) {
+        if (batches < 1 || batches > SWARM_SIZE) {
+            throw new IllegalArgumentException("Need between 1 and " + SWARM_SIZE + " batches");
+        }
+
+        this.batches = batches;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
 
-                for (int d = 0; d < n; d++) {
-                    x[i][d] += v[i][d];
-                    x[i][d] = Math.min(x[i][d], xmax[d]);
-                    x[i][d] = Math.max(x[i][d], xmin[d]);
+    public void setStoppingCriteria(StoppingCriteria criteria) {
+        this.criteria = criteria;
+    }
+
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+
+    public int getGenerationsRun() {
+        return generationsRun;
+    }
+
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /* The clock the time limit is measured on */
+    void setTicker(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    /* Starts the clock for the time limit */
+    void start() {
+        startNanos = ticker.read();
+        stopReason = StopReason.GENERATIONS;
+    }
+
+    /* Whether a stopping criterion has been met, noting which */
+    boolean finished() {
+        StopReason reason = null;
+
+        if (criteria.getEvaluationLimit() > 0 && evaluations + SWARM_SIZE > criteria.getEvaluationLimit()) {
+            reason = StopReason.EVALUATION_LIMIT;
+        } else if (criteria.getTimeLimitMillis() > 0
+                && ticker.read() - startNanos >= criteria.getTimeLimitMillis() * 1000000L) {
+            reason = StopReason.TIME_LIMIT;
+        } else if (criteria.getStagnationLimit() > 0 && stagnantGenerations >= criteria.getStagnationLimit()) {
+            reason = StopReason.STAGNATION;
+        } else if (criteria.getMinimumDiameter() > 0.0 && diameter() < criteria.getMinimumDiameter()) {
+            reason = StopReason.CONVERGED;
+        }
+
+        if (reason == null) {
+            return false;
+        }
+
+        stopReason = reason;
+        return true;
+    }
+
+    /* Furthest any particle is from the global best along a coordinate, relative to its bounds */
+    double diameter() {
+        double diameter = 0.0;
+
+        for (int i = 0; i < SWARM_SIZE; i++) {
+            for (int d = 0; d < n; d++) {
+                double range = xmax[d] - xmin[d];
+
+                if (range > 0.0) {
+                    diameter = Math.max(diameter, Math.abs(x[i][d] - gbest[d]) / range);
                 }
+            }
+        }
 
-                double candidatePbestVal = fitness.evaluate(x[i]);
+        return diameter;
+    }
+
+    /* Moves and re-evaluates the whole swarm once */
+    void step() {
+        double previousBest = gbestVal;
+
+        generationsRun++;
+        evaluations += SWARM_SIZE;
+
+        for (int i = 0; i < SWARM_SIZE; i++) {
+            move(i);
+        }
 
-                if (candidatePbestVal < pbestVal[i]) {
-                    pbestVal[i] = candidatePbestVal;
-                    pbest[i] = Arrays.copyOf(x[i], n);
+        double[] values = evaluateSwarm();
+
+        for (int i = 0; i < SWARM_SIZE; i++) {
+            update(i, values[i]);
+        }
+
+        stagnantGenerations = gbestVal < previousBest ? 0 : stagnantGenerations + 1;
+    }
+
+    double[] getBest() {
+        return gbest;
+    }
+
+    double getBestValue() {
+        return gbestVal;
+    }
+
+    /*
+     * Brings in a particle found elsewhere at the place of the one with the
+     * worst personal best, starting from rest, unless it's no better than that.
+     */
+    boolean immigrate(double[] position, double value) {
+        int worst = 0;
+
+        for (int i = 1; i < SWARM_SIZE; i++) {
+            if (pbestVal[i] > pbestVal[worst]) {
+                worst = i;
+            }
+        }
+
+        if (!(value < pbestVal[worst])) {
+            return false;
+        }
+
+        x[worst] = Arrays.copyOf(position, n);
+        v[worst] = new double[n];
+        pbest[worst] = Arrays.copyOf(position, n);
+        pbestVal[worst] = value;
+        stagnantParticle[worst] = 0;
+
+        if (value < gbestVal) {
+            gbestVal = value;
+            gbest = Arrays.copyOf(position, n);
+        }
+
+        return true;
+    }
+
+    private void move(int i) {
+        if (criteria.getReseedAfter() > 0 && stagnantParticle[i] >= criteria.getReseedAfter()) {
+            reseed(i);
+            return;
+        }
+
+        for (int d = 0; d < n; d++) {
+            double r1 = rng.nextDouble();
+            double r2 = rng.nextDouble();
+
+            v[i][d] = omega * v[i][d] + c1 * r1 * (pbest[i][d] - x[i][d]) + c2 * r2 * (gbest[d] - x[i][d]);
+        }
+
+        for (int d = 0; d < n; d++) {
+            x[i][d] += v[i][d];
+            x[i][d] = Math.min(x[i][d], xmax[d]);
+            x[i][d] = Math.max(x[i][d], xmin[d]);
+        }
+    }
+
+    private void reseed(int i) {
+        for (int d = 0; d < n; d++) {
+            x[i][d] = randomRange(rng, xmin[d], xmax[d]);
+            v[i][d] = 0.0;
+        }
+
+        // so that wherever it lands becomes its personal best
+        pbestVal[i] = Double.POSITIVE_INFINITY;
+    }
+
+    private void update(int i, double candidatePbestVal) {
+        if (candidatePbestVal < pbestVal[i]) {
+            pbestVal[i] = candidatePbestVal;
+            pbest[i] = Arrays.copyOf(x[i], n);
+            stagnantParticle[i] = 0;
+        } else {
+            stagnantParticle[i]++;
+        }
+
+        if (candidatePbestVal < gbestVal) {
+            gbestVal = candidatePbestVal;
+            gbest = Arrays.copyOf(x[i], n);
+        }
+    }
+
+    /* Fitness of every particle's current position, on the executor if there is one */
+    private double[] evaluateSwarm() {
+        if (fitness instanceof BatchFitnessFunction) {
+            return evaluateBatches((BatchFitnessFunction) fitness);
+        }
+
+        double[] values = new double[SWARM_SIZE];
+
+        if (executor == null) {
+            for (int i = 0; i < SWARM_SIZE; i++) {
+                values[i] = fitness.evaluate(x[i]);
+            }
+            return values;
+        }
+
+        List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(SWARM_SIZE);
+
+        for (int i = 0; i < SWARM_SIZE; i++) {
+            final double[] position = x[i];
+            tasks.add(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    return fitness.evaluate(position);
                 }
+            });
+        }
+
+        try {
+            List<Future<Double>> results = executor.invokeAll(tasks);
+
+            for (int i = 0; i < SWARM_SIZE; i++) {
+                values[i] = results.get(i).get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating the swarm", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Fitness evaluation failed", ex.getCause());
+        }
+
+        return values;
+    }
 
-                if (candidatePbestVal < gbestVal) {
-                    gbestVal = candidatePbestVal;
-                    gbest = Arrays.copyOf(x[i], n);
+    private double[] evaluateBatches(final BatchFitnessFunction batchFitness) {
+        if (executor == null) {
+            return batchFitness.evaluateAll(x);
+        }
+
+        List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>(batches);
+
+        for (int b = 0; b < batches; b++) {
+            final double[][] batch = Arrays.copyOfRange(x, b * SWARM_SIZE / batches, (b + 1) * SWARM_SIZE / batches);
+            tasks.add(new Callable<double[]>() {
+                @Override
+                public double[] call() {
+                    return batchFitness.evaluateAll(batch);
                 }
+            });
+        }
+
+        double[] values = new double[SWARM_SIZE];
+
+        try {
+            List<Future<double[]>> results = executor.invokeAll(tasks);
+
+            for (int b = 0; b < batches; b++) {
+                double[] batchValues = results.get(b).get();
+                System.arraycopy(batchValues, 0, values, b * SWARM_SIZE / batches, batchValues.length);
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating the swarm", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Fitness evaluation failed", ex.getCause());
         }
 
-        return gbest;
+        return values;
     }
 
     private double randomRange(MersenneTwisterFast rng, double min, double max) {
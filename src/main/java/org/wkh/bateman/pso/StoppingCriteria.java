@@ -0,0 +1,66 @@
+package org.wkh.bateman.pso;
+
+/*
+ * When a particle swarm may stop before its generations run out, and when it
+ * restarts particles that have got stuck. Each limit is off while zero, so
+ * new StoppingCriteria() runs every generation.
+ *
+ * The diameter is the furthest any particle is from the global best along
+ * any coordinate, as a fraction of that coordinate's bounds.
+ */
+public class StoppingCriteria {
+
+    private int stagnationLimit;
+    private double minimumDiameter;
+    private long timeLimitMillis;
+    private long evaluationLimit;
+    private int reseedAfter;
+
+    public int getStagnationLimit() {
+        return stagnationLimit;
+    }
+
+    /* Stop once the global best hasn't improved for this many generations */
+    public void setStagnationLimit(int generations) {
+        this.stagnationLimit = generations;
+    }
+
+    public double getMinimumDiameter() {
+        return minimumDiameter;
+    }
+
+    /* Stop once the swarm has collapsed below this diameter */
+    public void setMinimumDiameter(double diameter) {
+        this.minimumDiameter = diameter;
+    }
+
+    public long getTimeLimitMillis() {
+        return timeLimitMillis;
+    }
+
+    /* Start no generation after this long */
+    public void setTimeLimitMillis(long millis) {
+        this.timeLimitMillis = millis;
+    }
+
+    public long getEvaluationLimit() {
+        return evaluationLimit;
+    }
+
+    /* Start no generation that would take the fitness evaluations past this */
+    public void setEvaluationLimit(long evaluations) {
+        this.evaluationLimit = evaluations;
+    }
+
+    public int getReseedAfter() {
+        return reseedAfter;
+    }
+
+    /*
+     * Move a particle whose personal best hasn't improved for this many
+     * generations to a random place, at rest, forgetting its personal best.
+     */
+    public void setReseedAfter(int generations) {
+        this.reseedAfter = generations;
+    }
+}
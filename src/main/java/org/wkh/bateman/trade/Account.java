@@ -3,61 +3,148 @@ package org.wkh.bateman.trade;
 import org.joda.time.DateTime;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.TreeMap;
 
+/*
+ * The balance is kept in Money units; the BigDecimal methods convert at the edges.
+ *
+ * The equity curve is an append-only timeline of epoch millis and balances.
+ * Changes must come in time order, though several can share an instant, in
+ * which case the last one is the balance at that time. An account can instead
+ * keep only its current balance, as an optimizer's backtests do, and then
+ * records no curve at all.
+ */
 public class Account {
 
-    private TreeMap<DateTime, BigDecimal> equityCurve;
-    private BigDecimal currentAmount;
+    private long[] times;
+    private long[] balances;
+    private int size;
+    private long lastTime;
+    private boolean finalBalanceOnly;
+    private long currentUnits;
 
     public Account(BigDecimal startingAmount, DateTime time) throws Exception {
-        this.currentAmount = startingAmount;
-        equityCurve = new TreeMap<DateTime, BigDecimal>();
+        this(startingAmount, time, false);
+    }
+
+    public Account(BigDecimal startingAmount, DateTime time, boolean finalBalanceOnly) throws Exception {
+        this.currentUnits = Money.HALF_EVEN.fromBigDecimal(startingAmount);
+        this.finalBalanceOnly = finalBalanceOnly;
+        this.times = new long[finalBalanceOnly ? 0 : 16];
+        this.balances = new long[times.length];
+        this.lastTime = time.getMillis();
 
-        writeToEquityCurve(time);
+        record();
     }
 
-    private void complainIfOverwriting(DateTime time) throws Exception {
-        if (equityCurve.containsKey(time)) {
-            throw new Exception("Cannot overwrite an existing price: " + time);
+    private void checkTime(DateTime time) throws Exception {
+        if (time.getMillis() < lastTime) {
+            throw new Exception("Account changes must be in time order: " + time + " is before " + new DateTime(lastTime));
+        }
+    }
+
+    private void record() {
+        if (finalBalanceOnly) {
+            return;
+        }
+
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            balances = Arrays.copyOf(balances, size * 2);
         }
+
+        times[size] = lastTime;
+        balances[size] = currentUnits;
+        size++;
+    }
+
+    public boolean isFinalBalanceOnly() {
+        return finalBalanceOnly;
     }
 
+    /* A copy; entries sharing a time collapse to the last of them */
     public TreeMap<DateTime, BigDecimal> getEquityCurve() {
-        return equityCurve;
+        TreeMap<DateTime, BigDecimal> curve = new TreeMap<DateTime, BigDecimal>();
+
+        for (int i = 0; i < size; i++) {
+            curve.put(new DateTime(times[i]), Money.toBigDecimal(balances[i]));
+        }
+
+        return curve;
+    }
+
+    public int getEquityCurveSize() {
+        return size;
     }
 
+    /* Balance after the last change at or before time, or null before the account was opened */
     public BigDecimal valueAtTime(DateTime time) {
-        return equityCurve.get(time);
+        if (finalBalanceOnly) {
+            throw new IllegalStateException("Only the final balance of this account is kept");
+        }
+
+        long millis = time.getMillis();
+        int lo = 0;
+        int hi = size - 1;
+        int found = -1;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= millis) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        return found < 0 ? null : Money.toBigDecimal(balances[found]);
     }
 
     public BigDecimal getCurrentAmount() {
-        return equityCurve.lastEntry().getValue();
+        return Money.toBigDecimal(currentUnits);
     }
 
-    public void profit(BigDecimal amount, DateTime time) throws Exception {
-        currentAmount = currentAmount.add(amount);
+    public long getCurrentUnits() {
+        return currentUnits;
+    }
 
-        writeToEquityCurve(time);
+    public void profit(BigDecimal amount, DateTime time) throws Exception {
+        profit(Money.HALF_EVEN.fromBigDecimal(amount), time);
     }
 
-    private void writeToEquityCurve(DateTime time) throws Exception {
-        complainIfOverwriting(time);
+    public void profit(long units, DateTime time) throws Exception {
+        checkTime(time);
+
+        currentUnits += units;
+        lastTime = time.getMillis();
 
-        equityCurve.put(time, currentAmount);
+        record();
     }
 
     public void lose(BigDecimal amount, DateTime time) throws Exception {
-        if (currentAmount.subtract(amount).compareTo(BigDecimal.ZERO) == -1) {
+        lose(Money.HALF_EVEN.fromBigDecimal(amount), time);
+    }
+
+    public void lose(long units, DateTime time) throws Exception {
+        if (currentUnits - units < 0) {
             throw new Exception("Account is overdrawn");
         }
 
-        currentAmount = currentAmount.subtract(amount);
+        checkTime(time);
 
-        writeToEquityCurve(time);
+        currentUnits -= units;
+        lastTime = time.getMillis();
+
+        record();
     }
 
     public void withdraw(BigDecimal amount, DateTime time) throws Exception {
         lose(amount, time);
     }
+
+    public void withdraw(long units, DateTime time) throws Exception {
+        lose(units, time);
+    }
 }
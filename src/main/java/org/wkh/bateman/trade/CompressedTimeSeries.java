@@ -0,0 +1,404 @@
+package org.wkh.bateman.trade;
+
+import java.util.Arrays;
+import org.joda.time.DateTime;
+
+/*
+ * A TimeSeries packed into a bit stream for keeping long histories in memory,
+ * in the spirit of Facebook's Gorilla: bars are split into fixed-size blocks
+ * that can each be decoded on their own, so a range only costs the blocks it
+ * touches.
+ *
+ * Within a block, times are stored as the change in the gap between bars,
+ * which for regular bars is almost always zero. Prices are divided by their
+ * largest common tick in the block and stored relative to each other: the
+ * open against the previous close, the close against the open, and the high
+ * and low as how far they reach beyond the body. Volumes are stored as the
+ * change from the previous bar. Every number is zig-zag encoded and written
+ * with a short prefix saying how many bits follow, so a minute bar typically
+ * takes a few bytes rather than 48.
+ */
+public class CompressedTimeSeries {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    /*
+     * Unsigned values are written as a unary prefix giving their width
+     * followed by that many bits: 0 takes one bit, and values below 2^6, 2^13,
+     * 2^20 and 2^32 take 8, 16, 24 and 37 bits; anything else takes 69.
+     */
+    private static final int[] WIDTHS = {0, 6, 13, 20, 32, 64};
+    private int blockSize;
+    private int size;
+    private long[] words;
+    // per block: where its bits start, and the values decoding starts from
+    private long[] blockStart;
+    private long[] blockFirstTime;
+    private long[] blockFirstOpen;
+    private long[] blockScale;
+
+    private CompressedTimeSeries(int blockSize, int size, long[] words, long[] blockStart, long[] blockFirstTime,
+            long[] blockFirstOpen, long[] blockScale) {
+        this.blockSize = blockSize;
+        this.size = size;
+        this.words = words;
+        this.blockStart = blockStart;
+        this.blockFirstTime = blockFirstTime;
+        this.blockFirstOpen = blockFirstOpen;
+        this.blockScale = blockScale;
+    }
+
+    public static CompressedTimeSeries encode(TimeSeries series) throws Exception {
+        return encode(series, DEFAULT_BLOCK_SIZE);
+    }
+
+    public static CompressedTimeSeries encode(TimeSeries series, int blockSize) throws Exception {
+        Encoder encoder = new Encoder(blockSize);
+
+        for (int i = 0; i < series.size(); i++) {
+            encoder.add(series.timeAt(i), series.priceUnitsAt(i), series.highUnitsAt(i), series.lowUnitsAt(i),
+                    series.closeUnitsAt(i), series.volumeAt(i));
+        }
+
+        return encoder.finish();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int blockCount() {
+        return blockStart.length;
+    }
+
+    /* Memory taken by the encoded bars and the block index */
+    public long sizeInBytes() {
+        return 8L * (words.length + 4L * blockStart.length);
+    }
+
+    /* Block holding the last bar at or before millis, or -1 */
+    public int blockOf(long millis) {
+        int index = Arrays.binarySearch(blockFirstTime, millis);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    public TimeSeries decode() throws Exception {
+        return decode(0, size);
+    }
+
+    public TimeSeries decodeBlock(int block) throws Exception {
+        int first = block * blockSize;
+        return decode(first, Math.min(first + blockSize, size));
+    }
+
+    /* Bars [from, to), decoding only the blocks they fall in */
+    public TimeSeries decode(int from, int to) throws Exception {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Bad range [" + from + ", " + to + ") of " + size + " bars");
+        }
+
+        if (from == to) {
+            return new TimeSeries(new long[0], new long[0]);
+        }
+
+        int firstBlock = from / blockSize;
+        int lastBlock = (to - 1) / blockSize;
+        int offset = firstBlock * blockSize;
+        int n = Math.min((lastBlock + 1) * blockSize, size) - offset;
+
+        long[][] columns = new long[6][n];
+
+        for (int block = firstBlock; block <= lastBlock; block++) {
+            decodeInto(block, columns, block * blockSize - offset);
+        }
+
+        TimeSeries blocks = new TimeSeries(columns[0], columns[1], columns[2], columns[3], columns[4], columns[5]);
+
+        return blocks.slice(from - offset, to - offset);
+    }
+
+    /* The bars in [start, end] */
+    public TimeSeries decode(DateTime start, DateTime end) throws Exception {
+        int firstBlock = Math.max(blockOf(start.getMillis()), 0);
+        int lastBlock = blockOf(end.getMillis());
+
+        if (size == 0 || lastBlock < firstBlock) {
+            return new TimeSeries(new long[0], new long[0]);
+        }
+
+        int from = firstBlock * blockSize;
+        int to = Math.min((lastBlock + 1) * blockSize, size);
+
+        return decode(from, to).dateSlice(start, end);
+    }
+
+    private void decodeInto(int block, long[][] columns, int offset) {
+        long[] times = columns[0];
+        long[] opens = columns[1];
+        long[] highs = columns[2];
+        long[] lows = columns[3];
+        long[] closes = columns[4];
+        long[] volumes = columns[5];
+
+        BitReader in = new BitReader(words, blockStart[block]);
+        int count = Math.min(blockSize, size - block * blockSize);
+        long scale = blockScale[block];
+        long previousClose = blockFirstOpen[block];
+        long previousVolume = 0;
+        long delta = 0;
+
+        for (int k = 0; k < count; k++) {
+            int i = offset + k;
+
+            if (k == 0) {
+                times[i] = blockFirstTime[block];
+            } else if (k == 1) {
+                delta = unzigzag(in.readVarying());
+                times[i] = times[i - 1] + delta;
+            } else {
+                delta += unzigzag(in.readVarying());
+                times[i] = times[i - 1] + delta;
+            }
+
+            long open = previousClose + unzigzag(in.readVarying()) * scale;
+            long close = open + unzigzag(in.readVarying()) * scale;
+            opens[i] = open;
+            closes[i] = close;
+            highs[i] = Math.max(open, close) + unzigzag(in.readVarying()) * scale;
+            lows[i] = Math.min(open, close) - unzigzag(in.readVarying()) * scale;
+            volumes[i] = previousVolume + unzigzag(in.readVarying());
+
+            previousClose = close;
+            previousVolume = volumes[i];
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return Math.abs(a);
+    }
+
+    /*
+     * Builds a compressed series one bar at a time, holding only the block
+     * being filled in raw form.
+     */
+    public static class Encoder {
+
+        private int blockSize;
+        private int size;
+        private BitWriter out = new BitWriter();
+        private long[][] pending;
+        private int pendingCount;
+        private long lastTime = Long.MIN_VALUE;
+        private long[] blockStart = new long[16];
+        private long[] blockFirstTime = new long[16];
+        private long[] blockFirstOpen = new long[16];
+        private long[] blockScale = new long[16];
+        private int blocks;
+
+        public Encoder() {
+            this(DEFAULT_BLOCK_SIZE);
+        }
+
+        public Encoder(int blockSize) {
+            if (blockSize < 1) {
+                throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+            }
+
+            this.blockSize = blockSize;
+            this.pending = new long[6][blockSize];
+        }
+
+        public void add(long time, long open, long high, long low, long close, long volume) throws Exception {
+            if (size > 0 && time <= lastTime) {
+                throw new Exception("Times must be strictly increasing: " + new DateTime(time));
+            }
+
+            pending[0][pendingCount] = time;
+            pending[1][pendingCount] = open;
+            pending[2][pendingCount] = high;
+            pending[3][pendingCount] = low;
+            pending[4][pendingCount] = close;
+            pending[5][pendingCount] = volume;
+            pendingCount++;
+            size++;
+            lastTime = time;
+
+            if (pendingCount == blockSize) {
+                flush();
+            }
+        }
+
+        public CompressedTimeSeries finish() {
+            if (pendingCount > 0) {
+                flush();
+            }
+
+            return new CompressedTimeSeries(blockSize, size, out.toArray(), Arrays.copyOf(blockStart, blocks),
+                    Arrays.copyOf(blockFirstTime, blocks), Arrays.copyOf(blockFirstOpen, blocks),
+                    Arrays.copyOf(blockScale, blocks));
+        }
+
+        private void flush() {
+            long[] times = pending[0];
+            long[] opens = pending[1];
+            long[] highs = pending[2];
+            long[] lows = pending[3];
+            long[] closes = pending[4];
+            long[] volumes = pending[5];
+
+            long scale = 0;
+            for (int k = 0; k < pendingCount; k++) {
+                scale = gcd(scale, gcd(gcd(opens[k], closes[k]), gcd(highs[k], lows[k])));
+            }
+            if (scale == 0) {
+                scale = 1;
+            }
+
+            if (blocks == blockStart.length) {
+                int capacity = blocks * 2;
+                blockStart = Arrays.copyOf(blockStart, capacity);
+                blockFirstTime = Arrays.copyOf(blockFirstTime, capacity);
+                blockFirstOpen = Arrays.copyOf(blockFirstOpen, capacity);
+                blockScale = Arrays.copyOf(blockScale, capacity);
+            }
+
+            blockStart[blocks] = out.bitLength();
+            blockFirstTime[blocks] = times[0];
+            blockFirstOpen[blocks] = opens[0];
+            blockScale[blocks] = scale;
+            blocks++;
+
+            long previousClose = opens[0];
+            long previousVolume = 0;
+
+            for (int k = 0; k < pendingCount; k++) {
+                if (k == 1) {
+                    out.writeVarying(zigzag(times[1] - times[0]));
+                } else if (k > 1) {
+                    out.writeVarying(zigzag((times[k] - times[k - 1]) - (times[k - 1] - times[k - 2])));
+                }
+
+                long open = opens[k];
+                long close = closes[k];
+                out.writeVarying(zigzag((open - previousClose) / scale));
+                out.writeVarying(zigzag((close - open) / scale));
+                out.writeVarying(zigzag((highs[k] - Math.max(open, close)) / scale));
+                out.writeVarying(zigzag((Math.min(open, close) - lows[k]) / scale));
+                out.writeVarying(zigzag(volumes[k] - previousVolume));
+
+                previousClose = close;
+                previousVolume = volumes[k];
+            }
+
+            pendingCount = 0;
+        }
+    }
+
+    private static class BitWriter {
+
+        private long[] words = new long[64];
+        private long bitLength;
+
+        long bitLength() {
+            return bitLength;
+        }
+
+        void writeVarying(long value) {
+            int bucket = 0;
+            while (bucket < WIDTHS.length - 1 && (value >>> WIDTHS[bucket]) != 0) {
+                bucket++;
+            }
+
+            // bucket ones, then a zero unless it's the widest bucket
+            if (bucket < WIDTHS.length - 1) {
+                write(((1L << bucket) - 1) << 1, bucket + 1);
+            } else {
+                write((1L << bucket) - 1, bucket);
+            }
+
+            if (WIDTHS[bucket] > 0) {
+                write(value, WIDTHS[bucket]);
+            }
+        }
+
+        void write(long value, int bits) {
+            int word = (int) (bitLength >>> 6);
+
+            if (word + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+
+            int free = 64 - (int) (bitLength & 63);
+
+            if (bits <= free) {
+                words[word] |= (value & mask(bits)) << (free - bits);
+            } else {
+                int rest = bits - free;
+                words[word] |= (value >>> rest) & mask(free);
+                words[word + 1] |= (value & mask(rest)) << (64 - rest);
+            }
+
+            bitLength += bits;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (int) ((bitLength + 63) >>> 6));
+        }
+    }
+
+    private static class BitReader {
+
+        private long[] words;
+        private long position;
+
+        BitReader(long[] words, long position) {
+            this.words = words;
+            this.position = position;
+        }
+
+        long readVarying() {
+            int bucket = 0;
+            while (bucket < WIDTHS.length - 1 && read(1) == 1) {
+                bucket++;
+            }
+
+            return WIDTHS[bucket] == 0 ? 0 : read(WIDTHS[bucket]);
+        }
+
+        long read(int bits) {
+            int word = (int) (position >>> 6);
+            int available = 64 - (int) (position & 63);
+            long value;
+
+            if (bits <= available) {
+                value = (words[word] >>> (available - bits)) & mask(bits);
+            } else {
+                int rest = bits - available;
+                value = ((words[word] & mask(available)) << rest) | (words[word + 1] >>> (64 - rest));
+            }
+
+            position += bits;
+            return value;
+        }
+    }
+
+    private static long mask(int bits) {
+        return bits == 64 ? -1L : (1L << bits) - 1;
+    }
+}
@@ -1,15 +1,26 @@
 package org.wkh.bateman.trade;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 
 public class Conditions {
 
     private BigDecimal commissions;
     private BigDecimal slippage;
+    private Money money;
+    private long commissionUnits;
+    private long slippageUnits;
 
     public Conditions(BigDecimal commissions, BigDecimal slippage) {
+        this(commissions, slippage, RoundingMode.HALF_EVEN);
+    }
+
+    public Conditions(BigDecimal commissions, BigDecimal slippage, RoundingMode rounding) {
         this.commissions = commissions;
         this.slippage = slippage;
+        this.money = new Money(rounding);
+        this.commissionUnits = money.fromBigDecimal(commissions);
+        this.slippageUnits = money.fromBigDecimal(slippage);
     }
 
     public BigDecimal getCommissions() {
@@ -20,6 +31,28 @@ public class Conditions {
         return slippage;
     }
 
+    public Money getMoney() {
+        return money;
+    }
+
+    public long getCommissionUnits() {
+        return commissionUnits;
+    }
+
+    public long getSlippageUnits() {
+        return slippageUnits;
+    }
+
+    /* Cost of buying size shares at price, slippage and commission included */
+    public long purchaseUnits(long price, int size) {
+        return Money.times(price + money.multiply(price, slippageUnits), size) + commissionUnits;
+    }
+
+    /* Proceeds of selling size shares at price, less slippage */
+    public long saleUnits(long price, int size) {
+        return Money.times(price - money.multiply(price, slippageUnits), size);
+    }
+
     public static Conditions getZero() {
         return new Conditions(BigDecimal.ZERO, BigDecimal.ZERO);
     }
@@ -3,14 +3,11 @@ package org.wkh.bateman.trade;
 import org.joda.time.DateTime;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
-import java.math.RoundingMode;
 
 public class FixedPercentageAllocationStrategy implements MoneyManagementStrategy {
 
-    private BigDecimal ratio;
+    private long ratio;
     private Asset asset;
-    private final MathContext mc = new MathContext(10, RoundingMode.DOWN);
 
     public FixedPercentageAllocationStrategy(double ratio, Asset asset) throws Exception {
         if (ratio > 1.0) {
@@ -18,17 +15,18 @@ public class FixedPercentageAllocationStrategy implements MoneyManagementStrateg
         } else if (ratio <= 0.0) {
             throw new Exception("Ratio must be > 0");
         }
-        this.ratio = new BigDecimal(ratio);
+        this.ratio = Money.HALF_EVEN.fromBigDecimal(new BigDecimal(ratio));
         this.asset = asset;
     }
 
     @Override
     public int sizePosition(Account account, DateTime time) {
-        BigDecimal price = asset.priceAt(time);
-        BigDecimal allocated = account.getCurrentAmount().multiply(ratio);
-        BigDecimal shares = allocated.divide(price, 2, RoundingMode.HALF_UP);
-        int i = shares.round(mc).intValue();
+        TimeSeries series = asset.getTimeSeries();
+        long price = series.priceUnitsAt(series.indexOf(time));
+        long allocated = Money.HALF_EVEN.multiply(account.getCurrentUnits(), ratio);
+        // shares to the nearest hundredth, then truncated to whole shares
+        long hundredths = (allocated * 100 + price / 2) / price;
 
-        return i;
+        return (int) (hundredths / 100);
     }
 }
\ No newline at end of file
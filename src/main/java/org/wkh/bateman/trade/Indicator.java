@@ -0,0 +1,35 @@
+package org.wkh.bateman.trade;
+
+/*
+ * One indicator over a whole series, precomputed into an array indexed by bar.
+ * Bars without enough history for the indicator's period read as NaN.
+ */
+public final class Indicator {
+
+    private final int period;
+    private final int firstDefined;
+    private final double[] values;
+
+    Indicator(int period, int firstDefined, double[] values) {
+        this.period = period;
+        this.firstDefined = firstDefined;
+        this.values = values;
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public double valueAt(int index) {
+        return values[index];
+    }
+
+    /* Whether the bar at index has a full period of history behind it */
+    public boolean isDefinedAt(int index) {
+        return index >= firstDefined;
+    }
+}
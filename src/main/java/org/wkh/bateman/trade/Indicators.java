@@ -0,0 +1,204 @@
+package org.wkh.bateman.trade;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Rolling indicators over a series' prices. Each is computed for every bar in
+ * a single O(n) pass the first time a period is asked for and then kept, so a
+ * rule should look an indicator up once and read it by bar index from then on.
+ *
+ * Windows end at, and include, the bar they're reported for. Prices, averages
+ * and deviations are in currency units (see Money.toDouble); rate of change is
+ * a fraction of the earlier price.
+ */
+public class Indicators {
+
+    private TimeSeries series;
+    private Map<Integer, Indicator> smaCache = new HashMap<Integer, Indicator>();
+    private Map<Integer, Indicator> rocCache = new HashMap<Integer, Indicator>();
+    private Map<Integer, Indicator> maxCache = new HashMap<Integer, Indicator>();
+    private Map<Integer, Indicator> minCache = new HashMap<Integer, Indicator>();
+    private Map<Integer, Indicator> stdDevCache = new HashMap<Integer, Indicator>();
+
+    public Indicators(TimeSeries series) {
+        this.series = series;
+    }
+
+    /* Simple moving average of the last period prices */
+    public synchronized Indicator sma(int period) {
+        Indicator indicator = smaCache.get(period);
+
+        if (indicator == null) {
+            indicator = computeSma(period);
+            smaCache.put(period, indicator);
+        }
+
+        return indicator;
+    }
+
+    /* (price - price period bars ago) / price period bars ago */
+    public synchronized Indicator roc(int period) {
+        Indicator indicator = rocCache.get(period);
+
+        if (indicator == null) {
+            indicator = computeRoc(period);
+            rocCache.put(period, indicator);
+        }
+
+        return indicator;
+    }
+
+    /* Highest of the last period prices */
+    public synchronized Indicator max(int period) {
+        Indicator indicator = maxCache.get(period);
+
+        if (indicator == null) {
+            indicator = computeExtreme(period, true);
+            maxCache.put(period, indicator);
+        }
+
+        return indicator;
+    }
+
+    /* Lowest of the last period prices */
+    public synchronized Indicator min(int period) {
+        Indicator indicator = minCache.get(period);
+
+        if (indicator == null) {
+            indicator = computeExtreme(period, false);
+            minCache.put(period, indicator);
+        }
+
+        return indicator;
+    }
+
+    /* Population standard deviation of the last period prices */
+    public synchronized Indicator stdDev(int period) {
+        Indicator indicator = stdDevCache.get(period);
+
+        if (indicator == null) {
+            indicator = computeStdDev(period);
+            stdDevCache.put(period, indicator);
+        }
+
+        return indicator;
+    }
+
+    private static void checkPeriod(int period) {
+        if (period < 1) {
+            throw new IllegalArgumentException("Indicator period must be positive: " + period);
+        }
+    }
+
+    private double[] undefined() {
+        double[] values = new double[series.size()];
+        Arrays.fill(values, Double.NaN);
+        return values;
+    }
+
+    /* The running sum is kept in exact price units, so it never drifts */
+    private Indicator computeSma(int period) {
+        checkPeriod(period);
+
+        double[] values = undefined();
+        long sum = 0;
+
+        for (int i = 0; i < values.length; i++) {
+            sum += series.priceUnitsAt(i);
+
+            if (i >= period) {
+                sum -= series.priceUnitsAt(i - period);
+            }
+
+            if (i >= period - 1) {
+                values[i] = Money.toDouble(sum) / period;
+            }
+        }
+
+        return new Indicator(period, period - 1, values);
+    }
+
+    private Indicator computeRoc(int period) {
+        checkPeriod(period);
+
+        double[] values = undefined();
+
+        for (int i = period; i < values.length; i++) {
+            long then = series.priceUnitsAt(i - period);
+            values[i] = (series.priceUnitsAt(i) - then) / (double) then;
+        }
+
+        return new Indicator(period, period, values);
+    }
+
+    /*
+     * Monotonic deque of bar indices: prices at the indices in the deque only
+     * get worse from head to tail, so the head is always the window's extreme.
+     * Every bar is pushed and popped at most once.
+     */
+    private Indicator computeExtreme(int period, boolean highest) {
+        checkPeriod(period);
+
+        double[] values = undefined();
+        int[] deque = new int[values.length];
+        int head = 0;
+        int tail = 0;
+
+        for (int i = 0; i < values.length; i++) {
+            long price = series.priceUnitsAt(i);
+
+            while (tail > head && (highest ? series.priceUnitsAt(deque[tail - 1]) <= price
+                    : series.priceUnitsAt(deque[tail - 1]) >= price)) {
+                tail--;
+            }
+
+            deque[tail++] = i;
+
+            if (deque[head] <= i - period) {
+                head++;
+            }
+
+            if (i >= period - 1) {
+                values[i] = Money.toDouble(series.priceUnitsAt(deque[head]));
+            }
+        }
+
+        return new Indicator(period, period - 1, values);
+    }
+
+    /*
+     * Sliding-window form of Welford's update: once the window is full, each
+     * step swaps the oldest price for the newest without recomputing the sum
+     * of squares from scratch.
+     */
+    private Indicator computeStdDev(int period) {
+        checkPeriod(period);
+
+        double[] values = undefined();
+        double mean = 0.0;
+        double m2 = 0.0;
+
+        for (int i = 0; i < values.length; i++) {
+            double price = Money.toDouble(series.priceUnitsAt(i));
+
+            if (i < period) {
+                double delta = price - mean;
+                mean += delta / (i + 1);
+                m2 += delta * (price - mean);
+            } else {
+                double oldest = Money.toDouble(series.priceUnitsAt(i - period));
+                double previousMean = mean;
+                mean += (price - oldest) / period;
+                m2 += (price - oldest) * (price - mean + oldest - previousMean);
+            }
+
+            if (i >= period - 1) {
+                values[i] = Math.sqrt(Math.max(m2, 0.0) / period);
+            }
+        }
+
+        return new Indicator(period, period - 1, values);
+    }
+}
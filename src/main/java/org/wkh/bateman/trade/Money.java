@@ -0,0 +1,104 @@
+package org.wkh.bateman.trade;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/*
+ * Fixed-point money: prices, cash and fractions such as slippage are plain
+ * longs counting millionths (10^-SCALE) of a unit, so the trading pipeline can
+ * run without creating a BigDecimal per operation.
+ *
+ * Sums and whole-share multiples are exact. Multiplying two amounts produces
+ * more decimal places than SCALE, and a Money instance is the policy that
+ * decides how those get rounded away.
+ */
+public final class Money {
+
+    public static final int SCALE = 6;
+    public static final long ONE = 1000000L;
+    public static final Money HALF_EVEN = new Money(RoundingMode.HALF_EVEN);
+    // a product whose double estimate is below this can't overflow a long,
+    // since the estimate is off by far less than the margin to 2^63
+    private static final double SAFE_PRODUCT = 0x1p62;
+    private RoundingMode rounding;
+
+    public Money(RoundingMode rounding) {
+        this.rounding = rounding;
+    }
+
+    public RoundingMode getRounding() {
+        return rounding;
+    }
+
+    public static long fromBigDecimal(BigDecimal amount, RoundingMode rounding) {
+        return amount.movePointRight(SCALE).setScale(0, rounding).longValueExact();
+    }
+
+    public long fromBigDecimal(BigDecimal amount) {
+        return fromBigDecimal(amount, rounding);
+    }
+
+    /* Trailing zeros are dropped, so whole amounts compare equal to new BigDecimal(int) */
+    public static BigDecimal toBigDecimal(long units) {
+        BigDecimal value = BigDecimal.valueOf(units, SCALE).stripTrailingZeros();
+        return value.scale() < 0 ? value.setScale(0) : value;
+    }
+
+    public static double toDouble(long units) {
+        return units / (double) ONE;
+    }
+
+    public static long times(long units, int count) {
+        return Math.multiplyExact(units, (long) count);
+    }
+
+    /* Product of two fixed-point amounts, rounded back to SCALE places */
+    public long multiply(long a, long b) {
+        if (Math.abs((double) a * (double) b) < SAFE_PRODUCT) {
+            return divideByOne(a * b);
+        }
+
+        BigDecimal product = BigDecimal.valueOf(a).multiply(BigDecimal.valueOf(b));
+        return product.movePointLeft(SCALE).setScale(0, rounding).longValueExact();
+    }
+
+    private long divideByOne(long product) {
+        long quotient = product / ONE;
+        long remainder = product % ONE;
+
+        if (remainder == 0) {
+            return quotient;
+        }
+
+        int sign = product < 0 ? -1 : 1;
+        boolean awayFromZero;
+
+        switch (rounding) {
+            case UP:
+                awayFromZero = true;
+                break;
+            case DOWN:
+                awayFromZero = false;
+                break;
+            case CEILING:
+                awayFromZero = sign > 0;
+                break;
+            case FLOOR:
+                awayFromZero = sign < 0;
+                break;
+            case UNNECESSARY:
+                throw new ArithmeticException("Rounding necessary for " + product + " / " + ONE);
+            default:
+                long twice = Math.abs(remainder) * 2;
+                if (twice != ONE) {
+                    awayFromZero = twice > ONE;
+                } else if (rounding == RoundingMode.HALF_EVEN) {
+                    awayFromZero = (quotient & 1) != 0;
+                } else {
+                    awayFromZero = rounding == RoundingMode.HALF_UP;
+                }
+        }
+
+        return awayFromZero ? quotient + sign : quotient;
+    }
+}
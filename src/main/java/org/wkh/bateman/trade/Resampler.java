@@ -0,0 +1,118 @@
+package org.wkh.bateman.trade;
+
+import java.util.Arrays;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+
+/*
+ * Aggregates a series into coarser bars in one pass: each coarse bar opens at
+ * its first bar's open, closes at its last bar's close, spans the highest high
+ * and lowest low in between, and sums their volume. It's stamped with the time
+ * of its first bar.
+ *
+ * Bars never span trading sessions. Sessions are calendar days in the
+ * exchange's zone, New York unless given, never the JVM's default zone, so
+ * the same bars come out on any machine. Intraday periods (seconds, minutes,
+ * hours) are counted from the session open, 9:30 unless given, so hourly bars
+ * run 9:30-10:30 and so on even on a day whose first bar is late, and the
+ * last bar of a day is cut short at the close. Daily and longer bars are made
+ * of whole sessions, grouped by calendar week, month or year.
+ */
+public class Resampler {
+
+    public static final LocalTime SESSION_OPEN = new LocalTime(9, 30);
+    public static final DateTimeZone SESSION_ZONE = DateTimeZone.forID("America/New_York");
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    public static TimeSeries resample(TimeSeries series, TimeSeriesType type) throws Exception {
+        return resample(series, type, SESSION_OPEN, SESSION_ZONE);
+    }
+
+    public static TimeSeries resample(TimeSeries series, TimeSeriesType type, LocalTime sessionOpen,
+            DateTimeZone zone) throws Exception {
+        int n = series.size();
+
+        long[] times = new long[n];
+        long[] opens = new long[n];
+        long[] highs = new long[n];
+        long[] lows = new long[n];
+        long[] closes = new long[n];
+        long[] volumes = new long[n];
+
+        boolean intraday = isIntraday(type);
+        int bars = 0;
+        long dayFrom = 0;
+        long dayTo = 0;
+        long day = 0;
+        long sessionStart = 0;
+        long dayKey = 0;
+        long previousKey = 0;
+
+        for (int i = 0; i < n; i++) {
+            long time = series.timeAt(i);
+
+            // calendar lookups happen once a session, not once a bar
+            if (i == 0 || time < dayFrom || time >= dayTo) {
+                LocalDate date = new LocalDate(time, zone);
+
+                dayFrom = date.toDateTimeAtStartOfDay(zone).getMillis();
+                dayTo = date.plusDays(1).toDateTimeAtStartOfDay(zone).getMillis();
+                day = date.toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis() / MILLIS_PER_DAY;
+                sessionStart = date.toDateTime(sessionOpen, zone).getMillis();
+                dayKey = calendarKey(type, day, date);
+            }
+
+            // bars before the open count back from it, into buckets of their own
+            long key = intraday ? (day << 32) + Math.floorDiv(time - sessionStart, periodMillis(type)) : dayKey;
+
+            if (bars == 0 || key != previousKey) {
+                times[bars] = time;
+                opens[bars] = series.priceUnitsAt(i);
+                highs[bars] = series.highUnitsAt(i);
+                lows[bars] = series.lowUnitsAt(i);
+                bars++;
+                previousKey = key;
+            }
+
+            int bar = bars - 1;
+            highs[bar] = Math.max(highs[bar], series.highUnitsAt(i));
+            lows[bar] = Math.min(lows[bar], series.lowUnitsAt(i));
+            closes[bar] = series.closeUnitsAt(i);
+            volumes[bar] += series.volumeAt(i);
+        }
+
+        return new TimeSeries(Arrays.copyOf(times, bars), Arrays.copyOf(opens, bars), Arrays.copyOf(highs, bars),
+                Arrays.copyOf(lows, bars), Arrays.copyOf(closes, bars), Arrays.copyOf(volumes, bars));
+    }
+
+    private static boolean isIntraday(TimeSeriesType type) {
+        return type == TimeSeriesType.EVERY_SECOND || type == TimeSeriesType.EVERY_MINUTE
+                || type == TimeSeriesType.HOURLY;
+    }
+
+    private static long periodMillis(TimeSeriesType type) {
+        switch (type) {
+            case EVERY_SECOND:
+                return 1000L;
+            case EVERY_MINUTE:
+                return 60 * 1000L;
+            default:
+                return 60 * 60 * 1000L;
+        }
+    }
+
+    /* Identifies the coarse bar a session belongs to */
+    private static long calendarKey(TimeSeriesType type, long day, LocalDate date) {
+        switch (type) {
+            case WEEKLY:
+                return date.getWeekyear() * 100L + date.getWeekOfWeekyear();
+            case MONTHLY:
+                return date.getYear() * 100L + date.getMonthOfYear();
+            case YEARLY:
+                return date.getYear();
+            default:
+                return day;
+        }
+    }
+}
@@ -2,16 +2,17 @@ package org.wkh.bateman.trade;
 
 import org.joda.time.DateTime;
 
-import java.math.BigDecimal;
-import java.util.Map;
-import java.util.SortedMap;
-
 public abstract class Rule {
 
     private Account account;
     private Asset asset;
     private Conditions conditions;
     private MoneyManagementStrategy moneyManager;
+    // position state for generateIndexedSignals, updated as trades open and close
+    private boolean positionOpen;
+    private TradeType positionType;
+    private int entryIndex = -1;
+    private int lastEntryDay = -1;
 
     protected Rule(Account account, Asset asset, Conditions conditions, MoneyManagementStrategy moneyManager) {
         this.account = account;
@@ -24,15 +25,66 @@ public abstract class Rule {
 
     public abstract boolean sell(DateTime time, Session session);
 
-    public synchronized Session generateSignals(DateTime start, DateTime end) throws Exception {
-        Session session = new Session(account, conditions);
+    /*
+     * Bar-index versions of buy and sell for generateIndexedSignals. By default
+     * they defer to the DateTime versions; rules on the optimizer's hot path
+     * override them to read the series' primitive columns and the position
+     * state below directly, so that evaluating a bar allocates nothing.
+     */
+    public boolean buyAt(int index, Session session) {
+        return buy(asset.getTimeSeries().dateAt(index), session);
+    }
 
-        SortedMap<DateTime, BigDecimal> slice = asset.getTimeSeries().dateSlice(start, end);
+    public boolean sellAt(int index, Session session) {
+        return sell(asset.getTimeSeries().dateAt(index), session);
+    }
 
+    /*
+     * Price the open trade is closed at when a sell (or, for shorts, a buy)
+     * signal fires on the bar at index. Defaults to the bar's price; rules
+     * that fill inside a bar's range override it.
+     */
+    protected long exitUnitsAt(int index, Trade trade) {
+        return asset.getTimeSeries().priceUnitsAt(index);
+    }
 
-        for (Map.Entry<DateTime, BigDecimal> kv : slice.entrySet()) {
-            DateTime time = kv.getKey();
-            BigDecimal price = kv.getValue();
+    /*
+     * Whether a trade may also close on the bar it opened on. Entries fill at
+     * a bar's open, so a rule whose exits look at the rest of the bar (its high
+     * and low) returns true. When the opposite signal then fires on the entry
+     * bar, the trade is closed at exitUnitsAt, stamped with the time the bar
+     * ends.
+     */
+    protected boolean exitsWithinEntryBar() {
+        return false;
+    }
+
+    protected boolean hasOpenPosition() {
+        return positionOpen;
+    }
+
+    protected int getEntryIndex() {
+        return entryIndex;
+    }
+
+    /* Trading day (as numbered by TimeSeries.dayOf) of the last entry, or -1 */
+    protected int getLastEntryDay() {
+        return lastEntryDay;
+    }
+
+    public Session generateSignals(DateTime start, DateTime end) throws Exception {
+        return generateSignals(start, end, false);
+    }
+
+    public synchronized Session generateSignals(DateTime start, DateTime end, boolean statisticsOnly) throws Exception {
+        Session session = new Session(account, conditions, statisticsOnly);
+
+        TimeSeries series = asset.getTimeSeries();
+        int first = series.ceilingIndex(start.getMillis());
+        int last = series.floorIndex(end.getMillis());
+
+        for (int i = first; i <= last; i++) {
+            DateTime time = series.dateAt(i);
             boolean doBuy = buy(time, session);
             boolean doSell = sell(time, session);
             if (doBuy || doSell) {
@@ -54,6 +106,78 @@ public abstract class Rule {
         return session;
     }
 
+    /*
+     * Same trades as generateSignals, but walks bar indexes and keeps the open
+     * position in fields instead of asking the session about every bar. Only
+     * opening and closing trades allocates.
+     */
+    public Session generateIndexedSignals(DateTime start, DateTime end) throws Exception {
+        return generateIndexedSignals(start, end, false);
+    }
+
+    public synchronized Session generateIndexedSignals(DateTime start, DateTime end, boolean statisticsOnly)
+            throws Exception {
+        Session session = new Session(account, conditions, statisticsOnly);
+
+        TimeSeries series = asset.getTimeSeries();
+        int first = series.ceilingIndex(start.getMillis());
+        int last = series.floorIndex(end.getMillis());
+        long endMillis = end.getMillis();
+
+        positionOpen = false;
+        positionType = null;
+        entryIndex = -1;
+        lastEntryDay = -1;
+
+        for (int i = first; i <= last; i++) {
+            boolean doBuy = buyAt(i, session);
+            boolean doSell = sellAt(i, session);
+
+            if (!doBuy && !doSell) {
+                continue;
+            }
+
+            if (positionOpen) {
+                if ((doSell && positionType == TradeType.LONG) || (doBuy && positionType == TradeType.SHORT)) {
+                    session.closeLastTrade(series.dateAt(i), exitUnitsAt(i, session.lastTrade()));
+                    positionOpen = false;
+                }
+            } else {
+                // not going to open a trade on the last day of the session
+                if (series.timeAt(i) >= endMillis) {
+                    break;
+                }
+
+                DateTime time = series.dateAt(i);
+                int size = moneyManager.sizePosition(account, time);
+
+                if (size == 0) {
+                    break;
+                }
+
+                TradeType type = doBuy ? TradeType.LONG : TradeType.SHORT;
+                session.addTrade(new Trade(asset, time, null, size, type, conditions));
+
+                positionOpen = true;
+                positionType = type;
+                entryIndex = i;
+                lastEntryDay = series.dayOf(i);
+
+                if (exitsWithinEntryBar() && (type == TradeType.LONG ? sellAt(i, session) : buyAt(i, session))) {
+                    session.closeLastTrade(endOfBar(i, end), exitUnitsAt(i, session.lastTrade()));
+                    positionOpen = false;
+                }
+            }
+        }
+
+        if (positionOpen) {
+            session.closeLastTrade(end);
+            positionOpen = false;
+        }
+
+        return session;
+    }
+
     private boolean processSignal(Session session, DateTime time, boolean buy, DateTime end) throws Exception {
         /* If we have an open trade, close it out if the signal is the opposite of our current direction */
         if (session.inMarket(time)) {
@@ -62,18 +186,35 @@ public abstract class Rule {
             boolean sell = sell(time, session);
 
             if ((sell && lastTrade.getType() == TradeType.LONG) || (buy && lastTrade.getType() == TradeType.SHORT)) {
-                session.closeLastTrade(time);
+                int index = asset.getTimeSeries().indexOf(time);
+                session.closeLastTrade(time, exitUnitsAt(index, lastTrade));
             }
         } else {
             /* Open a new trade at the current time in the indicated direction */
             if (!makeSizedTrade(session, time, buy ? TradeType.LONG : TradeType.SHORT, end)) {
                 return false;
             }
+
+            if (exitsWithinEntryBar() && (buy ? sell(time, session) : buy(time, session))) {
+                int index = asset.getTimeSeries().indexOf(time);
+                session.closeLastTrade(endOfBar(index, end), exitUnitsAt(index, session.lastTrade()));
+            }
         }
 
         return true;
     }
 
+    /* When the bar at index is over: the next bar's time, but no later than end */
+    private DateTime endOfBar(int index, DateTime end) {
+        TimeSeries series = asset.getTimeSeries();
+
+        if (index + 1 < series.size() && series.timeAt(index + 1) < end.getMillis()) {
+            return series.dateAt(index + 1);
+        }
+
+        return end;
+    }
+
     private boolean makeSizedTrade(Session session, DateTime time, TradeType type, DateTime end) throws Exception {
         // not going to open a trade on the last day of the session
         if (time.compareTo(end) >= 0) {
@@ -0,0 +1,48 @@
+package org.wkh.bateman.trade;
+
+/*
+ * Count, mean and sum of squared deviations (M2) of a stream of values,
+ * updated one value at a time with Welford's method. The arithmetic is the
+ * same as commons-math's SummaryStatistics, so the mean and standard deviation
+ * come out identical, without the other moments it keeps.
+ */
+public final class RunningStatistics {
+
+    private long n;
+    private double mean;
+    private double m2;
+
+    public void addValue(double value) {
+        n++;
+        double deviation = value - mean;
+        double scaledDeviation = deviation / n;
+        mean += scaledDeviation;
+        m2 += (n - 1.0) * deviation * scaledDeviation;
+    }
+
+    public long getN() {
+        return n;
+    }
+
+    /* NaN when empty */
+    public double getMean() {
+        return n == 0 ? Double.NaN : mean;
+    }
+
+    /* Sample variance; NaN when empty and 0 for a single value */
+    public double getVariance() {
+        if (n == 0) {
+            return Double.NaN;
+        }
+
+        return n == 1 ? 0.0 : m2 / (n - 1.0);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    public double getM2() {
+        return m2;
+    }
+}
@@ -1,8 +1,5 @@
 package org.wkh.bateman.trade;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
 import org.joda.time.format.DateTimeFormat;
@@ -13,31 +10,50 @@ import java.io.FileWriter;
 import java.math.BigDecimal;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
+/*
+ * Trades are kept in the order they happened and never overlap, so at most the
+ * last one is open and only the last couple of trades can matter to a question
+ * about the present. inMarket and closedTradeWithin check those first and
+ * answer in constant time while a rule walks forward through a series; asking
+ * about earlier times falls back to a binary search over trade opens.
+ *
+ * A statistics-only session is for when only the numbers at the end matter, as
+ * in an optimizer's fitness function. It keeps the running profit statistics,
+ * gross profit and drawdown, but only the last two trades, which is all a rule
+ * walking forward asks about, and no profit curve. It can't be dumped.
+ */
 public class Session {
 
     private List<Trade> trades;
     private Account account;
     private Conditions conditions;
     private List<BigDecimal> profitCurve;
-    private SummaryStatistics stats;
+    private RunningStatistics stats;
+    private boolean statisticsOnly;
+    private long closedProfitUnits;
+    private long peakUnits;
+    private long maxDrawdownUnits;
 
     public Session(Account account, final Conditions conditions) {
-        stats = new SummaryStatistics();
+        this(account, conditions, false);
+    }
+
+    public Session(Account account, final Conditions conditions, boolean statisticsOnly) {
+        stats = new RunningStatistics();
 
         profitCurve = new ArrayList<BigDecimal>();
 
         trades = new ArrayList<Trade>();
         this.account = account;
         this.conditions = conditions;
+        this.statisticsOnly = statisticsOnly;
+        this.peakUnits = account.getCurrentUnits();
     }
 
     public void addTrade(Trade trade) throws Exception {
-        if (trades.contains(trade)) {
+        if (!trades.isEmpty() && lastTrade() == trade) {
             throw new Exception("Cannot add the same trade more than once");
         } else if (trades.size() > 0) {
             if (lastTrade().isOpen() || lastTrade().getClose().compareTo(trade.getOpen()) > 0) {
@@ -48,20 +64,35 @@ public class Session {
 
         trades.add(trade);
 
+        if (statisticsOnly && trades.size() > 2) {
+            trades.remove(0);
+        }
+
         if (trade.isClosed()) {
             tabulateClosedTrade(trade);
         } else if (trade.isOpen()) {
-            BigDecimal purchasePrice = trade.getPurchasePrice();
-            DateTime time = trade.getOpen().plusSeconds(1);
-            account.withdraw(purchasePrice, time);
+            account.withdraw(trade.purchaseUnits(), trade.getOpen());
         }
     }
 
     public void tabulateClosedTrade(Trade trade) throws Exception {
-        BigDecimal profit = trade.profit();
-        account.profit(trade.getSellPrice(), trade.getClose());
-        profitCurve.add(profit);
-        stats.addValue(profit.doubleValue());
+        long profit = trade.profitUnits();
+        account.profit(trade.sellUnits(), trade.getClose());
+        stats.addValue(Money.toDouble(profit));
+        closedProfitUnits += profit;
+
+        // drawdown of the balance between trades, when nothing is held
+        long balance = account.getCurrentUnits();
+        peakUnits = Math.max(peakUnits, balance);
+        maxDrawdownUnits = Math.max(maxDrawdownUnits, peakUnits - balance);
+
+        if (!statisticsOnly) {
+            profitCurve.add(Money.toBigDecimal(profit));
+        }
+    }
+
+    public boolean isStatisticsOnly() {
+        return statisticsOnly;
     }
 
     public Conditions getConditions() {
@@ -76,17 +107,30 @@ public class Session {
         return account;
     }
 
-    public BigDecimal grossProfit() throws Exception {
-        BigDecimal sum = new BigDecimal(0);
+    /* Profit of the closed trades; an open trade counts once it closes */
+    public BigDecimal grossProfit() {
+        return Money.toBigDecimal(closedProfitUnits);
+    }
 
-        for (Trade trade : trades) {
-            sum = sum.add(trade.profit());
-        }
+    public long getClosedTradeCount() {
+        return stats.getN();
+    }
 
-        return sum;
+    /* Largest fall of the balance from a previous high, as of each trade's close */
+    public BigDecimal maxDrawdown() {
+        return Money.toBigDecimal(maxDrawdownUnits);
+    }
+
+    public RunningStatistics getStatistics() {
+        return stats;
     }
 
     public double sharpeRatio() {
+        return sharpeRatio(stats);
+    }
+
+    /* Sharpe ratio of per-trade profits, as a session reports it */
+    public static double sharpeRatio(RunningStatistics stats) {
         if (stats.getN() == 0) {
             return 0.00001;
         }
@@ -109,24 +153,75 @@ public class Session {
         tabulateClosedTrade(lastTrade());
     }
 
-    public boolean inMarket(final DateTime dateTime) {
-        return (Collections2.filter(trades, new Predicate<Trade>() {
-            @Override
-            public boolean apply(Trade input) {
-                return input.includesDate(dateTime);
-            }
-        })).size() > 0;
+    public void closeLastTrade(DateTime time, long priceUnits) throws Exception {
+        lastTrade().setClose(time, priceUnits);
+
+        tabulateClosedTrade(lastTrade());
     }
 
-    public Trade tradeAt(final DateTime date) {
-        for (Trade trade : trades) {
-            Interval interval = new Interval(trade.getOpen(), trade.getClose());
-            if (interval.contains(date)) {
-                return trade;
+    public boolean inMarket(DateTime dateTime) {
+        int index = lastTradeOpenedBy(dateTime.getMillis(), true);
+        return index >= 0 && trades.get(index).includesDate(dateTime);
+    }
+
+    /* Whether some closed trade opened after start and closed before end */
+    public boolean closedTradeWithin(DateTime start, DateTime end) {
+        long startMillis = start.getMillis();
+        int last = lastTradeOpenedBy(end.getMillis(), false);
+
+        if (last < 0 || opensBy(trades.get(last), startMillis, true)) {
+            return false;
+        }
+
+        // a trade before it that also opened after start closed before this one opened
+        if (last > 0 && !opensBy(trades.get(last - 1), startMillis, true)) {
+            return true;
+        }
+
+        Trade trade = trades.get(last);
+        return trade.isClosed() && trade.getClose().isBefore(end);
+    }
+
+    public Trade tradeAt(DateTime date) {
+        int index = lastTradeOpenedBy(date.getMillis(), true);
+
+        if (index < 0) {
+            return null;
+        }
+
+        Trade trade = trades.get(index);
+        Interval interval = new Interval(trade.getOpen(), trade.getClose());
+        return interval.contains(date) ? trade : null;
+    }
+
+    private static boolean opensBy(Trade trade, long millis, boolean inclusive) {
+        long open = trade.getOpen().getMillis();
+        return inclusive ? open <= millis : open < millis;
+    }
+
+    /* Index of the last trade opened at (if inclusive) or before millis, or -1 */
+    private int lastTradeOpenedBy(long millis, boolean inclusive) {
+        int hi = trades.size() - 1;
+
+        if (hi < 0 || opensBy(trades.get(hi), millis, inclusive)) {
+            return hi;
+        }
+
+        int lo = 0;
+        int result = -1;
+        hi--;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (opensBy(trades.get(mid), millis, inclusive)) {
+                result = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
             }
         }
 
-        return null;
+        return result;
     }
 
     // TODO fuck this awful code
@@ -136,6 +231,10 @@ public class Session {
     }
 
     public void dumpTo(String directory, String description) throws Exception {
+        if (statisticsOnly) {
+            throw new IllegalStateException("A statistics-only session has no trades to dump");
+        }
+
         if (trades.isEmpty()) {
             return;
         }
@@ -157,23 +256,15 @@ public class Session {
 
         TimeSeries series = trades.get(0).getAsset().getTimeSeries();
 
-        TreeMap<DateTime, BigDecimal> prices = series.getPrices();
-
-        DateTime[] dates = new DateTime[prices.size()];
-        int pos = 0;
-        for (DateTime key : prices.keySet()) {
-            dates[pos++] = key;
-        }
-
         for (Trade trade : trades) {
             String openStr = fmt.print(trade.getOpen());
             String closeStr = fmt.print(trade.getClose());
 
-            int openIndex = Arrays.binarySearch(dates, trade.getOpen()) + 1;
-            int closeIndex = Arrays.binarySearch(dates, trade.getClose()) + 1;
+            int openIndex = series.indexOf(trade.getOpen()) + 1;
+            int closeIndex = series.indexOf(trade.getClose()) + 1;
 
-            out.write(openIndex + "," + closeIndex + "," + openStr + "," + closeStr + "," + printNum(trade.getAsset().priceAt(trade.getOpen())) + ","
-                    + printNum(trade.getAsset().priceAt(trade.getClose())) + "," + trade.getType() + "," + trade.getSize() + ","
+            out.write(openIndex + "," + closeIndex + "," + openStr + "," + closeStr + "," + printNum(trade.openPrice()) + ","
+                    + printNum(trade.closePrice()) + "," + trade.getType() + "," + trade.getSize() + ","
                     + printNum(trade.getPurchasePrice()) + "," + printNum(trade.profit()) + "," + printNum(account.valueAtTime(trade.getClose())) + "\n");
         }
 
@@ -188,13 +279,10 @@ public class Session {
 
         out.write("Date,Price\n");
 
-        for (Map.Entry<DateTime, BigDecimal> entry : prices.entrySet()) {
-            DateTime date = entry.getKey();
-            BigDecimal tick = entry.getValue();
-
-            String dateStr = fmt.print(date);
+        for (int i = 0; i < series.size(); i++) {
+            String dateStr = fmt.print(series.timeAt(i));
 
-            out.write(dateStr + "," + printNum(tick) + "\n");
+            out.write(dateStr + "," + printNum(Money.toBigDecimal(series.priceUnitsAt(i))) + "\n");
         }
 
         out.close();
@@ -1,70 +1,392 @@
 package org.wkh.bateman.trade;
 
-import org.wkh.bateman.trade.util.IndicatorParameter;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 
 import java.math.BigDecimal;
+import java.nio.LongBuffer;
 import java.util.*;
 
+/*
+ * Prices are held column-wise: a sorted long[] of epoch millis and parallel
+ * long[]s of each bar's open, high, low and close in Money units, plus its
+ * volume. This keeps a month of minute bars down to a few flat arrays instead
+ * of a tree of boxed DateTime/BigDecimal pairs. A bar's price, as priceAt and
+ * priceUnitsAt report it, is its open. A series built from opens alone uses
+ * them for the high, low and close as well. A series is a snapshot; changing
+ * the map it was built from afterwards does not affect it.
+ *
+ * The columns are LongBuffers, so a series can sit directly on a memory-mapped
+ * file (see TimeSeriesFile) as well as on heap arrays.
+ *
+ * Bars are also grouped into trading days (local calendar days in the zone the
+ * series was built in) once at construction, so the open and close of a bar's
+ * day are plain array reads.
+ *
+ * slice and dateSlice return views: a start offset and a length over the same
+ * columns and day index, so slicing costs nothing per bar. A view is a series
+ * in its own right; its first and last days start and end where the view does.
+ */
 public class TimeSeries {
 
-    private TreeMap<DateTime, BigDecimal> prices;
-    private HashMap<IndicatorParameter, List<BigDecimal>> previousPriceCache;
-    private HashMap<IndicatorParameter, BigDecimal> smaCache;
-    private HashMap<IndicatorParameter, Double> rocCache;
-    private HashMap<IndicatorParameter, BigDecimal> maxCache;
-    private HashMap<IndicatorParameter, BigDecimal> minCache;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    // this series is bars [base, base + size) of the columns and day index
+    private int base;
+    private int size;
+    private LongBuffer times;
+    private LongBuffer prices;
+    private LongBuffer highs;
+    private LongBuffer lows;
+    private LongBuffer closes;
+    private LongBuffer volumes;
+    private DateTimeZone zone;
+    // day index over all the columns' bars: dayOfBar maps a bar to its day,
+    // the rest are indexed by day. firstDay and days are this series' share.
+    private int[] dayOfBar;
+    private long[] dayKeys;
+    private int[] dayStart;
+    private int[] dayEnd;
+    private BigDecimal[] dayOpen;
+    private DateTime[] dayClose;
+    private int firstDay;
+    private int days;
+    private Indicators indicators;
 
     public TimeSeries(TreeMap<DateTime, BigDecimal> prices) throws Exception {
-        this.prices = prices;
-        this.previousPriceCache = new HashMap<IndicatorParameter, List<BigDecimal>>();
-        this.smaCache = new HashMap<IndicatorParameter, BigDecimal>();
-        this.rocCache = new HashMap<IndicatorParameter, Double>();
-        this.maxCache = new HashMap<IndicatorParameter, BigDecimal>();
-        this.minCache = new HashMap<IndicatorParameter, BigDecimal>();
+        this(timeColumn(prices), priceColumn(prices));
+    }
+
+    public TimeSeries(long[] times, long[] prices) throws Exception {
+        this(times, prices, prices, prices, prices, new long[prices.length]);
+    }
+
+    public TimeSeries(long[] times, long[] opens, long[] highs, long[] lows, long[] closes, long[] volumes)
+            throws Exception {
+        this(LongBuffer.wrap(times), LongBuffer.wrap(opens), LongBuffer.wrap(highs), LongBuffer.wrap(lows),
+                LongBuffer.wrap(closes), LongBuffer.wrap(volumes));
+    }
+
+    /* Columns are read with absolute gets from index 0 to their limit, never copied */
+    TimeSeries(LongBuffer times, LongBuffer opens, LongBuffer highs, LongBuffer lows, LongBuffer closes,
+            LongBuffer volumes) throws Exception {
+        int n = times.limit();
+
+        if (opens.limit() != n || highs.limit() != n || lows.limit() != n || closes.limit() != n || volumes.limit() != n) {
+            throw new Exception("Time and price columns must have the same length");
+        }
+
+        for (int i = 1; i < n; i++) {
+            if (times.get(i) <= times.get(i - 1)) {
+                throw new Exception("Times must be strictly increasing: " + new DateTime(times.get(i)));
+            }
+        }
+
+        this.size = n;
+        this.times = times;
+        this.prices = opens;
+        this.highs = highs;
+        this.lows = lows;
+        this.closes = closes;
+        this.volumes = volumes;
+        this.zone = DateTimeZone.getDefault();
+        indexDays();
+        coverDays();
+    }
+
+    /* A view of bars [base, base + size) of another series' columns */
+    private TimeSeries(TimeSeries source, int base, int size) {
+        this.base = base;
+        this.size = size;
+        this.times = source.times;
+        this.prices = source.prices;
+        this.highs = source.highs;
+        this.lows = source.lows;
+        this.closes = source.closes;
+        this.volumes = source.volumes;
+        this.zone = source.zone;
+        this.dayOfBar = source.dayOfBar;
+        this.dayKeys = source.dayKeys;
+        this.dayStart = source.dayStart;
+        this.dayEnd = source.dayEnd;
+        this.dayOpen = source.dayOpen;
+        this.dayClose = source.dayClose;
+        coverDays();
     }
 
+    private static long[] timeColumn(TreeMap<DateTime, BigDecimal> prices) {
+        long[] column = new long[prices.size()];
+        int pos = 0;
+        for (DateTime time : prices.keySet()) {
+            column[pos++] = time.getMillis();
+        }
+        return column;
+    }
+
+    private static long[] priceColumn(TreeMap<DateTime, BigDecimal> prices) {
+        long[] column = new long[prices.size()];
+        int pos = 0;
+        for (BigDecimal price : prices.values()) {
+            column[pos++] = Money.HALF_EVEN.fromBigDecimal(price);
+        }
+        return column;
+    }
+
+    private void indexDays() {
+        int n = size;
+        int days = 0;
+
+        dayOfBar = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && dayKey(times.get(i)) != dayKey(times.get(i - 1))) {
+                days++;
+            }
+            dayOfBar[i] = days;
+        }
+
+        days = n == 0 ? 0 : days + 1;
+
+        dayKeys = new long[days];
+        dayStart = new int[days];
+        dayEnd = new int[days];
+        dayOpen = new BigDecimal[days];
+        dayClose = new DateTime[days];
+
+        for (int i = 0; i < n; i++) {
+            int day = dayOfBar[i];
+            if (i == 0 || dayOfBar[i - 1] != day) {
+                dayKeys[day] = dayKey(times.get(i));
+                dayStart[day] = i;
+                dayOpen[day] = Money.toBigDecimal(prices.get(i));
+            }
+            dayEnd[day] = i;
+        }
+
+        for (int day = 0; day < days; day++) {
+            dayClose[day] = new DateTime(times.get(dayEnd[day]));
+        }
+    }
+
+    /* Which of the indexed days this series' bars fall on */
+    private void coverDays() {
+        firstDay = size == 0 ? 0 : dayOfBar[base];
+        days = size == 0 ? 0 : dayOfBar[base + size - 1] - firstDay + 1;
+    }
+
+    /* Column position of the first bar of an indexed day that's inside this series */
+    private int dayStartOf(int day) {
+        return Math.max(dayStart[day], base);
+    }
+
+    private int dayEndOf(int day) {
+        return Math.min(dayEnd[day], base + size - 1);
+    }
+
+    /* Local calendar day number of an instant in this series' zone */
+    private long dayKey(long millis) {
+        return Math.floorDiv(millis + zone.getOffset(millis), MILLIS_PER_DAY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long timeAt(int index) {
+        return times.get(base + index);
+    }
+
+    public DateTime dateAt(int index) {
+        return new DateTime(times.get(base + index));
+    }
+
+    public long priceUnitsAt(int index) {
+        return prices.get(base + index);
+    }
+
+    public long highUnitsAt(int index) {
+        return highs.get(base + index);
+    }
+
+    public long lowUnitsAt(int index) {
+        return lows.get(base + index);
+    }
+
+    public long closeUnitsAt(int index) {
+        return closes.get(base + index);
+    }
+
+    public long volumeAt(int index) {
+        return volumes.get(base + index);
+    }
+
+    /* Index of the bar at exactly this time, or -1 if there isn't one */
+    public int indexOf(DateTime date) {
+        int index = search(date.getMillis());
+        return index >= 0 ? index : -1;
+    }
+
+    /* Index of the last bar at or before millis, or -1 */
+    public int floorIndex(long millis) {
+        int index = search(millis);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /* Index of the first bar at or after millis, or size() */
+    public int ceilingIndex(long millis) {
+        int index = search(millis);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /* Arrays.binarySearch over this series' part of the time column */
+    private int search(long millis) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long time = times.get(base + mid);
+
+            if (time < millis) {
+                low = mid + 1;
+            } else if (time > millis) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    public int dayCount() {
+        return days;
+    }
+
+    public int dayOf(int index) {
+        return dayOfBar[base + index] - firstDay;
+    }
+
+    public int firstBarOfDay(int day) {
+        return dayStartOf(firstDay + day) - base;
+    }
+
+    public int lastBarOfDay(int day) {
+        return dayEndOf(firstDay + day) - base;
+    }
+
+    /* Price units of the first bar on the same day as the bar at index */
+    public long openUnitsOnDay(int index) {
+        return prices.get(dayStartOf(dayOfBar[base + index]));
+    }
+
+    /* Index of the last bar on the same day as the bar at index */
+    public int closeIndexOnDay(int index) {
+        return dayEndOf(dayOfBar[base + index]) - base;
+    }
+
+    /* First price of the day, provided the day has a bar at or before date */
     public BigDecimal openOnDay(DateTime date) {
-        DateTime midnight = date.toDateMidnight().toDateTime();
-        NavigableMap<DateTime, BigDecimal> previousPrices = prices.subMap(midnight, true, date, true);
-        return previousPrices.firstEntry().getValue();
+        int index = floorIndex(date.getMillis());
+
+        if (index < 0) {
+            return null;
+        }
+
+        int day = dayOfBar[base + index];
+
+        if (dayKeys[day] != dayKey(date.getMillis())) {
+            return null;
+        }
+
+        return dayStart[day] >= base ? dayOpen[day] : Money.toBigDecimal(prices.get(base));
     }
 
+    /* Last bar of the day, or the last bar before it if the day has none */
     public DateTime closeOnDay(DateTime date) {
-        DateTime midnight = date.toDateMidnight().toDateTime();
-        DateTime nextDay = midnight.plusDays(1);
-        return prices.floorEntry(nextDay).getKey();
+        long key = dayKey(date.getMillis());
+        int index = floorIndex(date.getMillis());
+        int day = index < 0 ? firstDay : dayOfBar[base + index];
+
+        if (day + 1 < firstDay + days && dayKeys[day + 1] == key) {
+            day++;
+        } else if (days == 0 || dayKeys[day] > key) {
+            return null;
+        }
+
+        return dayEnd[day] < base + size ? dayClose[day] : new DateTime(times.get(dayEndOf(day)));
+    }
+
+    /* Coarser bars aggregated from this series; see Resampler */
+    public TimeSeries resample(TimeSeriesType type) throws Exception {
+        return Resampler.resample(this, type);
+    }
+
+    /* Rolling indicators over this series, computed on first use and kept */
+    public synchronized Indicators indicators() {
+        if (indicators == null) {
+            indicators = new Indicators(this);
+        }
+
+        return indicators;
     }
 
     public BigDecimal priceAt(DateTime date) {
-        return prices.get(date);
+        int index = indexOf(date);
+        return index < 0 ? null : Money.toBigDecimal(priceUnitsAt(index));
     }
 
     public boolean hasPriceAt(DateTime date) {
-        return prices.containsKey(date);
+        return indexOf(date) >= 0;
     }
 
     public DateTime beginningOfSeries() {
-        return prices.firstKey();
+        return dateAt(0);
     }
 
     public DateTime lastOfSeries() {
-        return prices.lastKey();
+        return dateAt(size - 1);
     }
 
-    public SortedMap<DateTime, BigDecimal> dateSlice(DateTime startPoint, DateTime endPoint) {
-        return prices.subMap(startPoint, true, endPoint, true);
+    /* View of bars [from, to) */
+    public TimeSeries slice(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Bad slice [" + from + ", " + to + ") of " + size + " bars");
+        }
+
+        return new TimeSeries(this, base + from, to - from);
     }
 
+    /* View of the bars in [startPoint, endPoint] */
+    public TimeSeries dateSlice(DateTime startPoint, DateTime endPoint) {
+        int from = ceilingIndex(startPoint.getMillis());
+        int to = Math.max(from, floorIndex(endPoint.getMillis()) + 1);
+
+        return slice(from, to);
+    }
+
+    /* Builds a map of the whole series; meant for reporting, not inner loops */
     public TreeMap<DateTime, BigDecimal> getPrices() {
-        return prices;
+        TreeMap<DateTime, BigDecimal> map = new TreeMap<DateTime, BigDecimal>();
+
+        for (int i = 0; i < size; i++) {
+            map.put(dateAt(i), Money.toBigDecimal(priceUnitsAt(i)));
+        }
+
+        return map;
     }
 
+    /* Drops the first i days' bars by moving the start of the series forward */
     void removeDays(int i) {
         DateTime first = beginningOfSeries();
         DateTime midnight = first.toDateMidnight().toDateTime();
         DateTime cutoff = midnight.plusDays(i);
 
-        prices = new TreeMap<DateTime, BigDecimal>(prices.tailMap(cutoff));
+        int start = ceilingIndex(cutoff.getMillis());
+
+        base += start;
+        size -= start;
+        coverDays();
+        indicators = null;
     }
 }
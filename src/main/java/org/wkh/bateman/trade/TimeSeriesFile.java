@@ -0,0 +1,175 @@
+package org.wkh.bateman.trade;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Fixed-width binary file holding one OHLCV series, laid out so it can be
+ * memory-mapped and used as a TimeSeries directly: no parsing, no copying and
+ * no per-bar objects, and every JVM reading the same file shares the one copy
+ * in the page cache.
+ *
+ * All numbers are little-endian. A 64 byte header holds
+ *
+ *   0   magic "BATEMAN1"
+ *   8   format version (int)
+ *   12  bar interval in seconds (int)
+ *   16  bar count (long)
+ *   24  symbol length in bytes (int)
+ *   28  symbol, UTF-8, zero padded to the end of the header
+ *
+ * followed by six columns of bar count longs each: epoch millis, then open,
+ * high, low and close in Money units, then volume. One mapping is limited to
+ * 2GB, which is a bit over 44 million bars.
+ */
+public class TimeSeriesFile {
+
+    private static final long MAGIC = 0x314e414d45544142L; // "BATEMAN1" read as a little-endian long
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SYMBOL_OFFSET = 28;
+    private static final int MAX_SYMBOL_LENGTH = HEADER_SIZE - SYMBOL_OFFSET;
+    private static final int COLUMNS = 6;
+    private String symbol;
+    private int interval;
+    private TimeSeries series;
+
+    private TimeSeriesFile(String symbol, int interval, TimeSeries series) {
+        this.symbol = symbol;
+        this.interval = interval;
+        this.series = series;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /* Backed by the mapping; stays valid after the file is closed or even deleted */
+    public TimeSeries getSeries() {
+        return series;
+    }
+
+    public static TimeSeriesFile open(Path path) throws Exception {
+        MappedByteBuffer mapped;
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a series file: " + path);
+            }
+
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (mapped.getLong(0) != MAGIC) {
+            throw new IOException("Not a series file: " + path);
+        }
+
+        if (mapped.getInt(8) != VERSION) {
+            throw new IOException("Unsupported series file version " + mapped.getInt(8) + ": " + path);
+        }
+
+        int interval = mapped.getInt(12);
+        long count = mapped.getLong(16);
+        int symbolLength = mapped.getInt(24);
+
+        if (count < 0 || symbolLength < 0 || symbolLength > MAX_SYMBOL_LENGTH
+                || mapped.capacity() != HEADER_SIZE + count * 8 * COLUMNS) {
+            throw new IOException("Corrupt series file: " + path);
+        }
+
+        byte[] symbolBytes = new byte[symbolLength];
+        ByteBuffer header = mapped.duplicate();
+        header.position(SYMBOL_OFFSET);
+        header.get(symbolBytes);
+
+        int n = (int) count;
+
+        TimeSeries series = new TimeSeries(column(mapped, 0, n), column(mapped, 1, n), column(mapped, 2, n),
+                column(mapped, 3, n), column(mapped, 4, n), column(mapped, 5, n));
+
+        return new TimeSeriesFile(new String(symbolBytes, StandardCharsets.UTF_8), interval, series);
+    }
+
+    private static LongBuffer column(MappedByteBuffer mapped, int column, int n) {
+        ByteBuffer view = mapped.duplicate();
+        view.position(HEADER_SIZE + column * n * 8);
+        view.limit(HEADER_SIZE + (column + 1) * n * 8);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+
+    /* Writes to a temporary file first so readers never map a half-written file */
+    public static void write(Path path, String symbol, int interval, TimeSeries series) throws IOException {
+        byte[] symbolBytes = symbol.getBytes(StandardCharsets.UTF_8);
+
+        if (symbolBytes.length > MAX_SYMBOL_LENGTH) {
+            throw new IOException("Symbol too long for a series file: " + symbol);
+        }
+
+        int n = series.size();
+        long size = HEADER_SIZE + (long) n * 8 * COLUMNS;
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Series too large for a series file: " + n + " bars");
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        try {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+
+            out.putLong(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(interval);
+            out.putLong(n);
+            out.putInt(symbolBytes.length);
+            out.put(symbolBytes);
+            out.position(HEADER_SIZE);
+
+            for (int i = 0; i < n; i++) {
+                out.putLong(series.timeAt(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.putLong(series.priceUnitsAt(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.putLong(series.highUnitsAt(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.putLong(series.lowUnitsAt(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.putLong(series.closeUnitsAt(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.putLong(series.volumeAt(i));
+            }
+
+            out.force();
+        } finally {
+            channel.close();
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
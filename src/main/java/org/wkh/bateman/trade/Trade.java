@@ -1,7 +1,6 @@
 package org.wkh.bateman.trade;
 
 import org.joda.time.DateTime;
-import org.joda.time.Interval;
 
 import java.math.BigDecimal;
 
@@ -13,6 +12,11 @@ public class Trade {
     private DateTime close;
     private int size;
     private Conditions conditions;
+    private int openIndex;
+    private int closeIndex;
+    // set when the trade was filled somewhere inside its closing bar
+    private boolean exitPriceSet;
+    private long exitUnits;
 
     public TradeType getType() {
         return type;
@@ -39,7 +43,11 @@ public class Trade {
         this.type = type;
         this.conditions = conditions;
 
-        if (!asset.getTimeSeries().hasPriceAt(open) || (isClosed() && !asset.getTimeSeries().hasPriceAt(close))) {
+        TimeSeries series = asset.getTimeSeries();
+        this.openIndex = series.indexOf(open);
+        this.closeIndex = isClosed() ? series.indexOf(close) : -1;
+
+        if (openIndex < 0 || (isClosed() && closeIndex < 0)) {
             throw new Exception("Cannot place trades at dates for which no data exists");
         }
 
@@ -50,6 +58,7 @@ public class Trade {
 
     public void setOpen(DateTime open) {
         this.open = open;
+        this.openIndex = asset.getTimeSeries().indexOf(open);
     }
 
     public void setClose(DateTime close) throws Exception {
@@ -58,6 +67,16 @@ public class Trade {
         }
 
         this.close = close;
+        this.closeIndex = asset.getTimeSeries().indexOf(close);
+        this.exitPriceSet = false;
+    }
+
+    /* Closes at the bar at close, but filled at the given price rather than the bar's open */
+    public void setClose(DateTime close, long priceUnits) throws Exception {
+        setClose(close);
+
+        this.exitPriceSet = true;
+        this.exitUnits = priceUnits;
     }
 
     public DateTime getOpen() {
@@ -81,10 +100,12 @@ public class Trade {
     }
 
     public boolean includesDate(DateTime time) {
+        long millis = time.getMillis();
+
         if (isClosed()) {
-            return new Interval(open, close).contains(time);
+            return open.getMillis() <= millis && millis < close.getMillis();
         } else {
-            return open.compareTo(time) <= 0;
+            return open.getMillis() <= millis;
         }
     }
 
@@ -101,7 +122,7 @@ public class Trade {
     }
 
     public BigDecimal closePrice() {
-        return asset.priceAt(close);
+        return exitPriceSet ? Money.toBigDecimal(exitUnits) : asset.priceAt(close);
     }
 
     // TODO this doesn't account for borrowing costs/interest when shorting
@@ -124,4 +145,31 @@ public class Trade {
         BigDecimal baseClosePrice = closePrice().subtract(closePrice().multiply(conditions.getSlippage()));
         return baseClosePrice.multiply(new BigDecimal(size));
     }
+
+    /* The methods below mirror the BigDecimal ones above in Money units */
+    public long openUnits() {
+        return asset.getTimeSeries().priceUnitsAt(openIndex);
+    }
+
+    public long closeUnits() {
+        return exitPriceSet ? exitUnits : asset.getTimeSeries().priceUnitsAt(closeIndex);
+    }
+
+    public long profitUnits() throws Exception {
+        if (isOpen()) {
+            throw new Exception("Can't calculate profit/loss of an open trade");
+        }
+
+        long sellPrice = sellUnits();
+        long purchasePrice = purchaseUnits();
+        return type == TradeType.LONG ? sellPrice - purchasePrice : purchasePrice - sellPrice;
+    }
+
+    public long purchaseUnits() {
+        return conditions.purchaseUnits(openUnits(), size);
+    }
+
+    public long sellUnits() {
+        return conditions.saleUnits(closeUnits(), size);
+    }
 }
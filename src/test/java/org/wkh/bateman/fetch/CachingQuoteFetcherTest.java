@@ -0,0 +1,182 @@
+package org.wkh.bateman.fetch;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.Days;
+import org.wkh.bateman.trade.TimeSeries;
+
+public class CachingQuoteFetcherTest extends TestCase {
+
+    private Path directory;
+    private List<Integer> requestedDays;
+    private QuoteFetcher source;
+    private DateTime today;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        directory = Files.createTempDirectory("quotecache");
+        requestedDays = new ArrayList<Integer>();
+        today = DateTime.now().toDateMidnight().toDateTime().plusHours(12);
+
+        // one bar at noon on each of the requested days, priced by day
+        source = new QuoteFetcher() {
+            @Override
+            public String fetchQuotes(String symbol, int days, int interval) throws Exception {
+                return null;
+            }
+
+            @Override
+            public List<Quote> parseQuotes(String quoteList, int interval) {
+                return null;
+            }
+
+            @Override
+            public List<Quote> fetchQuoteList(String symbol, int days, int interval) {
+                requestedDays.add(days);
+                List<Quote> quotes = new ArrayList<Quote>();
+                for (int day = days - 1; day >= 0; day--) {
+                    BigDecimal price = new BigDecimal(100 - day);
+                    quotes.add(new Quote(today.minusDays(day), interval, price, price, price, price, day));
+                }
+                return quotes;
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : directory.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(directory);
+
+        super.tearDown();
+    }
+
+    public void testFetchesOnlyTheMissingTail() throws Exception {
+        CachingQuoteFetcher fetcher = new CachingQuoteFetcher(source, directory);
+
+        List<Quote> first = fetcher.fetchQuoteList("FOO", 10, 86400);
+        assertEquals(10, first.size());
+        assertEquals(today, fetcher.lastCachedTime("FOO", 86400));
+
+        // a new fetcher over the same directory only refetches today
+        fetcher = new CachingQuoteFetcher(source, directory);
+        List<Quote> second = fetcher.fetchQuoteList("FOO", 10, 86400);
+
+        assertEquals(10, second.size());
+        assertEquals(1, (int) requestedDays.get(1));
+        assertEquals(new BigDecimal(91), second.get(0).getOpen());
+        assertEquals(today.minusDays(9), second.get(0).getOpenDate());
+    }
+
+    public void testRefetchesWhenAskedForMoreHistory() throws Exception {
+        CachingQuoteFetcher fetcher = new CachingQuoteFetcher(source, directory);
+
+        fetcher.fetchQuoteList("FOO", 5, 86400);
+        List<Quote> longer = fetcher.fetchQuoteList("FOO", 10, 86400);
+
+        assertEquals(10, (int) requestedDays.get(1));
+        assertEquals(10, longer.size());
+    }
+
+    public void testFetchesThroughTheSourcesParser() throws Exception {
+        QuoteFetcher streaming = new QuoteFetcher() {
+            @Override
+            public String fetchQuotes(String symbol, int days, int interval) throws Exception {
+                return null;
+            }
+
+            @Override
+            public List<Quote> parseQuotes(String quoteList, int interval) {
+                return null;
+            }
+
+            @Override
+            public List<Quote> fetchQuoteList(String symbol, int days, int interval) {
+                throw new UnsupportedOperationException("Only parses into a series");
+            }
+
+            @Override
+            public TimeSeries fetchAndParse(String symbol, int days, int interval) throws Exception {
+                return source.fetchAndParse(symbol, days, interval);
+            }
+        };
+
+        List<Quote> quotes = new CachingQuoteFetcher(streaming, directory).fetchQuoteList("FOO", 3, 86400);
+
+        assertEquals(3, quotes.size());
+        assertEquals(today.minusDays(2), quotes.get(0).getOpenDate());
+        assertEquals(new BigDecimal(98), quotes.get(0).getOpen());
+        assertEquals(2, quotes.get(0).getVolume());
+        assertEquals(new BigDecimal(100), quotes.get(2).getClose());
+    }
+
+    public void testCachesSeriesInGooglesLayout() throws Exception {
+        final TimeSeries sample = SampleQuotes.googleSeries();
+
+        QuoteFetcher google = new QuoteFetcher() {
+            @Override
+            public String fetchQuotes(String symbol, int days, int interval) throws Exception {
+                return null;
+            }
+
+            @Override
+            public List<Quote> parseQuotes(String quoteList, int interval) {
+                return null;
+            }
+
+            @Override
+            public TimeSeries fetchAndParse(String symbol, int days, int interval) throws Exception {
+                requestedDays.add(days);
+                return sample;
+            }
+        };
+
+        // ask for enough days to cover the whole sample
+        int days = Days.daysBetween(sample.beginningOfSeries(), DateTime.now()).getDays() + 1;
+        new CachingQuoteFetcher(google, directory).fetchAndParse("AAPL", days, 60);
+
+        List<String> lines = Files.readAllLines(directory.resolve("AAPL_60.csv"), StandardCharsets.UTF_8);
+        assertTrue(lines.get(0).startsWith("#from="));
+        assertEquals("COLUMNS=DATE,OPEN,HIGH,LOW,CLOSE,VOLUME", lines.get(1));
+        assertEquals(sample.size() + 2, lines.size());
+
+        TimeSeries cached = new CachingQuoteFetcher(google, directory).fetchAndParse("AAPL", days, 60);
+
+        assertEquals(sample.size(), cached.size());
+        for (int i = 0; i < sample.size(); i++) {
+            assertEquals(sample.timeAt(i), cached.timeAt(i));
+            assertEquals(sample.priceUnitsAt(i), cached.priceUnitsAt(i));
+            assertEquals(sample.highUnitsAt(i), cached.highUnitsAt(i));
+            assertEquals(sample.lowUnitsAt(i), cached.lowUnitsAt(i));
+            assertEquals(sample.closeUnitsAt(i), cached.closeUnitsAt(i));
+            assertEquals(sample.volumeAt(i), cached.volumeAt(i));
+        }
+    }
+
+    public void testRefetchesAnUnreadableCache() throws Exception {
+        // a bar in the layout earlier versions wrote
+        Files.write(directory.resolve("FOO_86400.csv"), Arrays.asList("#from=0",
+                today.getMillis() + ",1,1,1,1,1"), StandardCharsets.UTF_8);
+
+        CachingQuoteFetcher fetcher = new CachingQuoteFetcher(source, directory);
+        List<Quote> quotes = fetcher.fetchQuoteList("FOO", 3, 86400);
+
+        assertEquals(3, (int) requestedDays.get(0));
+        assertEquals(3, quotes.size());
+        assertEquals(new BigDecimal(100), quotes.get(2).getOpen());
+    }
+}
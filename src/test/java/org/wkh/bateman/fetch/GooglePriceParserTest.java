@@ -0,0 +1,132 @@
+package org.wkh.bateman.fetch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import static junit.framework.Assert.assertEquals;
+import junit.framework.TestCase;
+import org.wkh.bateman.trade.Money;
+import org.wkh.bateman.trade.TimeSeries;
+
+public class GooglePriceParserTest extends TestCase {
+
+    private static final String HEADER = "EXCHANGE%3DNASDAQ\nMARKET_OPEN_MINUTE=570\nMARKET_CLOSE_MINUTE=960\n"
+            + "INTERVAL=60\nCOLUMNS=DATE,CLOSE,HIGH,LOW,OPEN,VOLUME\nDATA=\nTIMEZONE_OFFSET=-300\n";
+
+    private TimeSeries parse(String response, int interval) throws IOException {
+        return GooglePriceParser.parse(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), interval);
+    }
+
+    public void testMatchesQuoteParsing() throws Exception {
+        TimeSeries expected = SampleQuotes.googleSeries();
+        // as Google sends it, with CRLF line ends
+        TimeSeries parsed = parse(SampleQuotes.googleResponse().replace("\n", "\r\n"), 60);
+
+        assertEquals(5873, parsed.size());
+        assertEquals(expected.size(), parsed.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.timeAt(i), parsed.timeAt(i));
+            assertEquals(expected.priceUnitsAt(i), parsed.priceUnitsAt(i));
+            assertEquals(expected.highUnitsAt(i), parsed.highUnitsAt(i));
+            assertEquals(expected.lowUnitsAt(i), parsed.lowUnitsAt(i));
+            assertEquals(expected.closeUnitsAt(i), parsed.closeUnitsAt(i));
+            assertEquals(expected.volumeAt(i), parsed.volumeAt(i));
+        }
+    }
+
+    public void testOffsetsCountFromTheLastAnchor() throws Exception {
+        TimeSeries series = parse(HEADER
+                + "a1362061800,10,11,9,10,100\n"
+                + "1,10,11,9,10,100\n"
+                + "5,10,11,9,10,100\n"
+                + "TIMEZONE_OFFSET=-240\n"
+                + "a1362148200,10,11,9,10,100\n"
+                + "2,10,11,9,10,100\n", 60);
+
+        assertEquals(5, series.size());
+        assertEquals(1362061800000L, series.timeAt(0));
+        assertEquals(1362061860000L, series.timeAt(1));
+        assertEquals(1362062100000L, series.timeAt(2));
+        assertEquals(1362148200000L, series.timeAt(3));
+        assertEquals(1362148320000L, series.timeAt(4));
+    }
+
+    public void testHeadersOverrideIntervalAndColumns() throws Exception {
+        TimeSeries series = parse("INTERVAL=300\nCOLUMNS=DATE,OPEN,HIGH,LOW,CLOSE,VOLUME\n"
+                + "a1000,1,4,0.5,2,7\n2,2,3,1,2.5,8\n", 60);
+
+        assertEquals(1000000L + 600000L, series.timeAt(1));
+        assertEquals(Money.ONE, series.priceUnitsAt(0));
+        assertEquals(4 * Money.ONE, series.highUnitsAt(0));
+        assertEquals(Money.ONE / 2, series.lowUnitsAt(0));
+        assertEquals(2 * Money.ONE, series.closeUnitsAt(0));
+        assertEquals(8, series.volumeAt(1));
+    }
+
+    public void testRoundsHalfEven() throws Exception {
+        TimeSeries series = parse("a1,1.0000005,1.0000015,1.00000051,7,0\n"
+                + "2,446.0101,.5,12.,0,0\n", 60);
+
+        assertEquals(1000000L, series.closeUnitsAt(0));
+        assertEquals(1000002L, series.highUnitsAt(0));
+        assertEquals(1000001L, series.lowUnitsAt(0));
+        assertEquals(7 * Money.ONE, series.priceUnitsAt(0));
+        assertEquals(446010100L, series.closeUnitsAt(1));
+        assertEquals(Money.ONE / 2, series.highUnitsAt(1));
+        assertEquals(12 * Money.ONE, series.lowUnitsAt(1));
+    }
+
+    public void testSortsRowsAndLastDuplicateWins() throws Exception {
+        TimeSeries series = parse("a100,1,1,1,1,1\n2,3,3,3,3,3\n1,2,2,2,2,2\n1,4,4,4,4,4\n2,5,5,5,5,5\n", 60);
+
+        assertEquals(3, series.size());
+        assertEquals(100000L, series.timeAt(0));
+        assertEquals(160000L, series.timeAt(1));
+        assertEquals(4, series.volumeAt(1));
+        assertEquals(220000L, series.timeAt(2));
+        assertEquals(5, series.volumeAt(2));
+    }
+
+    public void testRejectsOffsetBeforeAnchor() throws Exception {
+        try {
+            parse(HEADER + "1,10,11,9,10,100\n", 60);
+            fail("Offset without an anchor accepted");
+        } catch (IOException ex) {
+        }
+    }
+
+    public void testRejectsMalformedRows() throws Exception {
+        try {
+            parse(HEADER + "a1362061800,10,11,x,10,100\n", 60);
+            fail("Malformed price accepted");
+        } catch (IOException ex) {
+        }
+
+        try {
+            parse(HEADER + "a1362061800,10,11,9,10,\n", 60);
+            fail("Missing volume accepted");
+        } catch (IOException ex) {
+        }
+    }
+
+    public void testRejectsTruncatedRows() throws Exception {
+        try {
+            parse(HEADER + "a1362061800,10,11,9,10,100\n1,10,11\n", 60);
+            fail("Truncated row accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("line"));
+        }
+
+        try {
+            parse("COLUMNS=DATE,CLOSE,HIGH,LOW,OPEN\na1362061800,10,11,9\n", 60);
+            fail("Row without an open accepted");
+        } catch (IOException ex) {
+        }
+    }
+
+    public void testEmptyResponse() throws Exception {
+        assertEquals(0, parse("", 60).size());
+        assertEquals(0, parse(HEADER, 60).size());
+    }
+}
@@ -31,4 +31,15 @@ public class GoogleQuoteFetcherTest extends TestCase {
         assertEquals(quotes.size(), 5873);
 
     }
+
+    public void testOffsetsCountFromTheLastAnchor() throws Exception {
+        String response = "EXCHANGE%3DNASDAQ\nMARKET_OPEN_MINUTE=570\nMARKET_CLOSE_MINUTE=960\nINTERVAL=60\n"
+                + "COLUMNS=DATE,CLOSE,HIGH,LOW,OPEN,VOLUME\nDATA=\n"
+                + "a1362061800,10,11,9,10,100\n1,10,11,9,10,100\n5,10,11,9,10,100\n";
+
+        List<Quote> quotes = new GoogleQuoteFetcher().parseQuotes(response, 60);
+
+        assertEquals(3, quotes.size());
+        assertEquals(1362062100000L, quotes.get(2).getOpenDate().getMillis());
+    }
 }
@@ -1,9 +1,12 @@
 package org.wkh.bateman.fetch;
 
+import com.google.common.util.concurrent.RateLimiter;
 import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import static junit.framework.Assert.assertEquals;
 import junit.framework.TestCase;
 import org.joda.time.DateTime;
@@ -28,4 +31,97 @@ public class QuoteCollectionTest extends TestCase {
         assertEquals(expResult.getPrices().get(open), result.getPrices().get(open));
         assertEquals(expResult.getPrices().get(later), result.getPrices().get(later));
     }
+
+    public void testConvertKeepsOhlcvInTimeOrder() throws Exception {
+        DateTime first = new DateTime(2013, 3, 4, 0, 0);
+        DateTime second = first.plusDays(1);
+
+        // newest first, as Yahoo sends them, with a repeated bar
+        List<Quote> quotes = Arrays.asList(
+                new Quote(second, 86400, new BigDecimal("2.5"), new BigDecimal("2.9"), new BigDecimal("2.1"), new BigDecimal("2.2"), 7),
+                new Quote(first, 86400, new BigDecimal("1.0"), new BigDecimal("1.5"), new BigDecimal("0.5"), new BigDecimal("1.2"), 5),
+                new Quote(second, 86400, new BigDecimal("2.0"), new BigDecimal("2.4"), new BigDecimal("1.6"), new BigDecimal("2.3"), 9));
+
+        TimeSeries result = new QuoteCollection().convertQuoteToTimeSeries(quotes);
+
+        assertEquals(2, result.size());
+        assertEquals(first.getMillis(), result.timeAt(0));
+        assertEquals(1500000L, result.highUnitsAt(0));
+        assertEquals(500000L, result.lowUnitsAt(0));
+        assertEquals(1200000L, result.closeUnitsAt(0));
+        assertEquals(5L, result.volumeAt(0));
+        assertEquals(2000000L, result.priceUnitsAt(1));
+        assertEquals(9L, result.volumeAt(1));
+    }
+
+    public void testFetchAllQuotesConcurrently() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        QuoteFetcher fetcher = new QuoteFetcher() {
+            @Override
+            public String fetchQuotes(String symbol, int days, int interval) throws Exception {
+                int current = inFlight.incrementAndGet();
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), current));
+                }
+                Thread.sleep(1);
+                inFlight.decrementAndGet();
+                return symbol;
+            }
+
+            @Override
+            public List<Quote> parseQuotes(String quoteList, int interval) {
+                return Arrays.asList(new Quote(new DateTime(0L), interval, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE, 1));
+            }
+        };
+
+        QuoteCollection collection = new QuoteCollection();
+        collection.fetchAllQuotesConcurrently(fetcher, 4, 0.0);
+
+        assertEquals(100, collection.getQuotes().size());
+        assertTrue(collection.getQuotes().containsKey("AAPL"));
+        assertTrue(maxInFlight.get() <= 4);
+    }
+
+    public void testRateLimitIsSetOnlyForTheFetch() throws Exception {
+        final List<Double> rates = new CopyOnWriteArrayList<Double>();
+
+        QuoteFetcher fetcher = new QuoteFetcher() {
+            @Override
+            public String fetchQuotes(String symbol, int days, int interval) throws Exception {
+                rates.add(QuoteFetcher.getRequestsPerSecondPerHost());
+                return symbol;
+            }
+
+            @Override
+            public List<Quote> parseQuotes(String quoteList, int interval) {
+                return Arrays.asList(new Quote(new DateTime(0L), interval, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE, 1));
+            }
+        };
+
+        QuoteFetcher.setRequestsPerSecondPerHost(3.0);
+
+        try {
+            new QuoteCollection().fetchAllQuotesConcurrently(fetcher, 4, 1000.0);
+
+            assertEquals(100, rates.size());
+            for (double rate : rates) {
+                assertEquals(1000.0, rate);
+            }
+            assertEquals(3.0, QuoteFetcher.getRequestsPerSecondPerHost());
+        } finally {
+            QuoteFetcher.setRequestsPerSecondPerHost(0.0);
+        }
+    }
+
+    public void testRateLimitersAreSharedPerHost() {
+        RateLimiter limiter = QuoteFetcher.limiterFor("quotes.example.com", 5.0);
+
+        assertSame(limiter, QuoteFetcher.limiterFor("quotes.example.com", 5.0));
+        assertNotSame(limiter, QuoteFetcher.limiterFor("other.example.com", 5.0));
+
+        assertSame(limiter, QuoteFetcher.limiterFor("quotes.example.com", 2.0));
+        assertEquals(2.0, limiter.getRate());
+    }
 }
@@ -0,0 +1,40 @@
+package org.wkh.bateman.fetch;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+import org.wkh.bateman.trade.TimeSeries;
+
+/*
+ * The sample Google response bundled in src/main/resources, loaded the way
+ * the tests need it.
+ */
+public class SampleQuotes {
+
+    public static final String SYMBOL = "AAPL";
+    public static final int INTERVAL = 60;
+
+    public static String googleResponse() throws Exception {
+        InputStream in = SampleQuotes.class.getClassLoader().getResourceAsStream("sample_google_response.csv");
+
+        if (in == null) {
+            throw new IllegalStateException("Missing sample_google_response.csv");
+        }
+
+        try {
+            return CharStreams.toString(new InputStreamReader(in, Charsets.UTF_8)).replaceAll("\r\n", "\n");
+        } finally {
+            in.close();
+        }
+    }
+
+    public static List<Quote> googleQuotes() throws Exception {
+        return new GoogleQuoteFetcher().parseQuotes(googleResponse(), INTERVAL);
+    }
+
+    public static TimeSeries googleSeries() throws Exception {
+        return new QuoteCollection().convertQuoteToTimeSeries(googleQuotes());
+    }
+}
@@ -0,0 +1,88 @@
+package org.wkh.bateman.model;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.wkh.bateman.fetch.SampleQuotes;
+import org.wkh.bateman.pso.FitnessFunction;
+import org.wkh.bateman.trade.Asset;
+import org.wkh.bateman.trade.Conditions;
+import org.wkh.bateman.trade.FixedPercentageAllocationStrategy;
+import org.wkh.bateman.trade.MoneyManagementStrategy;
+import org.wkh.bateman.trade.TimeSeries;
+import org.wkh.bateman.trade.TimeSeriesType;
+
+public class BuyZoneDayEvaluatorTest extends TestCase {
+
+    Asset asset;
+    Conditions conditions;
+    MoneyManagementStrategy moneyManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        asset = new Asset(SampleQuotes.SYMBOL, SampleQuotes.googleSeries());
+        conditions = new Conditions(new BigDecimal(10), new BigDecimal(0.001));
+        moneyManager = new FixedPercentageAllocationStrategy(0.75, asset);
+    }
+
+    public void testMatchesBacktests() {
+        FitnessFunction backtest = BuyZoneOptimizer.backtest(asset, conditions, moneyManager, 100000);
+        BuyZoneDayEvaluator byDay = new BuyZoneDayEvaluator(asset, conditions, moneyManager, 100000);
+
+        Random random = new Random(11);
+        double[][] xs = new double[300][];
+
+        for (int p = 0; p < xs.length; p++) {
+            xs[p] = new double[]{random.nextDouble() * 4.0, random.nextDouble() * 4.0, random.nextDouble() * 4.0};
+        }
+        xs[0] = new double[]{0.5, 1.0, 1.0};
+        xs[1] = new double[]{0.0, 0.0, 0.0};
+        xs[2] = new double[]{-1.0, 0.5, 0.5};
+
+        double[] values = byDay.evaluateAll(xs);
+
+        assertTrue(values[0] != 0.0);
+
+        for (int p = 0; p < xs.length; p++) {
+            assertEquals(backtest.evaluate(xs[p]), values[p], 0.0);
+            assertEquals(values[p], byDay.evaluate(xs[p]), 0.0);
+        }
+    }
+
+    public void testMatchesBacktestsOnWideBars() throws Exception {
+        TimeSeries hourly = asset.getTimeSeries().resample(TimeSeriesType.HOURLY);
+        Asset hourlyAsset = new Asset(SampleQuotes.SYMBOL, hourly);
+        MoneyManagementStrategy hourlyMoneyManager = new FixedPercentageAllocationStrategy(0.75, hourlyAsset);
+
+        FitnessFunction backtest = BuyZoneOptimizer.backtest(hourlyAsset, conditions, hourlyMoneyManager, 100000);
+        BuyZoneDayEvaluator byDay = new BuyZoneDayEvaluator(hourlyAsset, conditions, hourlyMoneyManager, 100000);
+
+        for (double buy = 0.0; buy <= 4.0; buy += 0.25) {
+            for (double sell = 0.25; sell <= 4.0; sell += 0.25) {
+                double[] x = new double[]{buy, sell, 1.5};
+                assertEquals(backtest.evaluate(x), byDay.evaluate(x), 0.0);
+            }
+        }
+    }
+
+    public void testEmptySeries() throws Exception {
+        TimeSeries empty = new TimeSeries(new long[0], new long[0], new long[0], new long[0], new long[0], new long[0]);
+        Asset emptyAsset = new Asset("FOO", empty);
+
+        BuyZoneDayEvaluator byDay = new BuyZoneDayEvaluator(emptyAsset, conditions,
+                new FixedPercentageAllocationStrategy(0.75, emptyAsset), 100000);
+
+        assertEquals(Double.MAX_VALUE, byDay.evaluate(new double[]{0.5, 1.0, 1.0}));
+    }
+
+    public void testAccountsTooSmallToTrade() {
+        FitnessFunction backtest = BuyZoneOptimizer.backtest(asset, conditions, moneyManager, 10);
+        BuyZoneDayEvaluator byDay = new BuyZoneDayEvaluator(asset, conditions, moneyManager, 10);
+
+        double[] x = new double[]{0.5, 1.0, 1.0};
+
+        assertEquals(backtest.evaluate(x), byDay.evaluate(x), 0.0);
+    }
+}
@@ -3,8 +3,10 @@ package org.wkh.bateman.model;
 import java.math.BigDecimal;
 import java.util.TreeMap;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 import junit.framework.TestCase;
 import org.joda.time.DateTime;
+import org.wkh.bateman.fetch.SampleQuotes;
 import org.wkh.bateman.trade.Account;
 import org.wkh.bateman.trade.Asset;
 import org.wkh.bateman.trade.Conditions;
@@ -118,4 +120,247 @@ public class BuyZoneModelTest extends TestCase {
         session.addTrade(new Trade(asset, today.plusMinutes(1)));
         assertEquals(instance.sell(today.plusMinutes(3), session), true);
     }
+
+    public void testIndexedSignalsMatchSignals() throws Exception {
+        Session expected = instance.generateSignals(series.beginningOfSeries(), series.lastOfSeries());
+
+        account = new Account(new BigDecimal(1000), today.minusDays(6));
+        instance = new BuyZoneModel(account, asset, conditions,
+                moneyManager, buyTrigger, sellTrigger, stopLoss);
+        Session actual = instance.generateIndexedSignals(series.beginningOfSeries(), series.lastOfSeries());
+
+        assertEquals(1, actual.getTrades().size());
+        assertEquals(expected.getTrades().size(), actual.getTrades().size());
+        assertEquals(expected.lastTrade().getOpen(), actual.lastTrade().getOpen());
+        assertEquals(expected.lastTrade().getClose(), actual.lastTrade().getClose());
+        assertEquals(expected.getProfitCurve(), actual.getProfitCurve());
+        assertEquals(expected.getAccount().getCurrentAmount(), actual.getAccount().getCurrentAmount());
+    }
+
+    public void testStatisticsOnlyBacktestMatchesFullBacktest() throws Exception {
+        TimeSeries sample = SampleQuotes.googleSeries();
+        Asset sampleAsset = new Asset(SampleQuotes.SYMBOL, sample);
+        Conditions sampleConditions = new Conditions(new BigDecimal(10), new BigDecimal(0.001));
+        MoneyManagementStrategy sampleMoneyManager = new FixedPercentageAllocationStrategy(0.75, sampleAsset);
+
+        Account fullAccount = new Account(new BigDecimal(100000), sample.beginningOfSeries().minusDays(1));
+        Session full = new BuyZoneModel(fullAccount, sampleAsset, sampleConditions, sampleMoneyManager, 0.5, 1.0, 1.0)
+                .generateIndexedSignals(sample.beginningOfSeries(), sample.lastOfSeries());
+
+        Account statsAccount = new Account(new BigDecimal(100000), sample.beginningOfSeries().minusDays(1), true);
+        Session stats = new BuyZoneModel(statsAccount, sampleAsset, sampleConditions, sampleMoneyManager, 0.5, 1.0, 1.0)
+                .generateIndexedSignals(sample.beginningOfSeries(), sample.lastOfSeries(), true);
+
+        assertTrue(full.getTrades().size() > 2);
+        assertEquals(full.getTrades().size(), stats.getClosedTradeCount());
+        assertEquals(full.sharpeRatio(), stats.sharpeRatio(), 0.0);
+        assertEquals(full.grossProfit(), stats.grossProfit());
+        assertEquals(full.maxDrawdown(), stats.maxDrawdown());
+        assertEquals(fullAccount.getCurrentAmount(), statsAccount.getCurrentAmount());
+    }
+
+    private TimeSeries barSeries(long[] opens, long[] highs, long[] lows) throws Exception {
+        long[] times = new long[opens.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = today.plusMinutes(i).getMillis();
+        }
+
+        return new TimeSeries(times, opens, highs, lows, opens, new long[opens.length]);
+    }
+
+    private Session backtestBars(TimeSeries bars, boolean indexed) throws Exception {
+        asset = new Asset("FOO", bars);
+        account = new Account(new BigDecimal(1000), bars.beginningOfSeries().minusDays(6));
+        moneyManager = new FixedPercentageAllocationStrategy(0.2, asset);
+        instance = new BuyZoneModel(account, asset, conditions, moneyManager, 0.25, 1.0, 0.5);
+
+        return indexed ? instance.generateIndexedSignals(bars.beginningOfSeries(), bars.lastOfSeries())
+                : instance.generateSignals(bars.beginningOfSeries(), bars.lastOfSeries());
+    }
+
+    public void testSellTriggerFillsInsideBar() throws Exception {
+        // bought at the open of bar 1; bar 2's high clears 10.5 + 1.0 without opening there
+        TimeSeries bars = barSeries(
+                new long[]{10000000L, 10500000L, 10600000L, 10700000L, 10800000L},
+                new long[]{10000000L, 10500000L, 11800000L, 10700000L, 10800000L},
+                new long[]{10000000L, 10500000L, 10600000L, 10700000L, 10800000L});
+
+        for (boolean indexed : new boolean[]{false, true}) {
+            Trade trade = backtestBars(bars, indexed).lastTrade();
+
+            assertEquals(today.plusMinutes(1), trade.getOpen());
+            assertEquals(today.plusMinutes(2), trade.getClose());
+            assertEquals(11500000L, trade.closeUnits());
+            assertEquals(0, trade.closePrice().compareTo(new BigDecimal("11.5")));
+        }
+    }
+
+    public void testStopLossFillsInsideBarBeforeSellTrigger() throws Exception {
+        // bar 2 touches both the stop at 10.0 and the target at 11.5; the stop wins
+        TimeSeries bars = barSeries(
+                new long[]{10000000L, 10500000L, 10600000L, 10700000L},
+                new long[]{10000000L, 10500000L, 11600000L, 10700000L},
+                new long[]{10000000L, 10500000L, 9900000L, 10700000L});
+
+        for (boolean indexed : new boolean[]{false, true}) {
+            Trade trade = backtestBars(bars, indexed).lastTrade();
+
+            assertEquals(today.plusMinutes(2), trade.getClose());
+            assertEquals(10000000L, trade.closeUnits());
+        }
+    }
+
+    public void testGapThroughTriggerFillsAtOpen() throws Exception {
+        TimeSeries bars = barSeries(
+                new long[]{10000000L, 10500000L, 12000000L, 10700000L},
+                new long[]{10000000L, 10500000L, 12500000L, 10700000L},
+                new long[]{10000000L, 10500000L, 11900000L, 10700000L});
+
+        for (boolean indexed : new boolean[]{false, true}) {
+            Trade trade = backtestBars(bars, indexed).lastTrade();
+
+            assertEquals(today.plusMinutes(2), trade.getClose());
+            assertEquals(12000000L, trade.closeUnits());
+        }
+    }
+
+    public void testExitsInsideEntryBar() throws Exception {
+        // bought at the open of bar 1, whose own high already clears 10.5 + 1.0
+        TimeSeries bars = barSeries(
+                new long[]{10000000L, 10500000L, 10600000L, 10700000L},
+                new long[]{10000000L, 11600000L, 10600000L, 10700000L},
+                new long[]{10000000L, 10500000L, 10600000L, 10700000L});
+
+        for (boolean indexed : new boolean[]{false, true}) {
+            Session trades = backtestBars(bars, indexed);
+            Trade trade = trades.lastTrade();
+
+            assertEquals(1, trades.getTrades().size());
+            assertEquals(today.plusMinutes(1), trade.getOpen());
+            assertEquals(today.plusMinutes(2), trade.getClose());
+            assertEquals(11500000L, trade.closeUnits());
+        }
+    }
+
+    public void testNoEntryOnLastBarOfDay() throws Exception {
+        // the buy trigger is only reached on the day's last bar
+        TimeSeries bars = barSeries(
+                new long[]{10000000L, 10100000L, 10500000L},
+                new long[]{10000000L, 10100000L, 10500000L},
+                new long[]{10000000L, 10100000L, 10500000L});
+
+        for (boolean indexed : new boolean[]{false, true}) {
+            assertEquals(0, backtestBars(bars, indexed).getTrades().size());
+        }
+    }
+
+    public void testEndOfDayExitFillsAtClose() throws Exception {
+        long[] opens = new long[]{10000000L, 10500000L, 10600000L, 10700000L};
+        long[] closes = new long[]{10100000L, 10550000L, 10650000L, 10900000L};
+        long[] times = new long[opens.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = today.plusMinutes(i).getMillis();
+        }
+        TimeSeries bars = new TimeSeries(times, opens, closes, opens, closes, new long[opens.length]);
+
+        for (boolean indexed : new boolean[]{false, true}) {
+            Trade trade = backtestBars(bars, indexed).lastTrade();
+
+            assertEquals(today.plusMinutes(1), trade.getOpen());
+            assertEquals(today.plusMinutes(3), trade.getClose());
+            assertEquals(10900000L, trade.closeUnits());
+        }
+    }
+
+    public void testFiveMinuteBarsFillLikeMinuteBars() throws Exception {
+        DateTime start = new DateTime(2013, 3, 4, 9, 30, 0, 0);
+        // two days of fifteen minute bars; each day enters at the open of minute 5.
+        // Day one reaches the target at minute 7, inside the five-minute bar it
+        // entered on; day two hits the stop at minute 8.
+        long[][] days = new long[][]{
+            {10000000L, 10000000L, 10100000L, 10100000L, 10200000L, 10500000L, 10700000L, 11000000L, 11400000L, 11300000L,
+                11200000L, 11100000L, 11000000L, 10900000L, 10800000L},
+            {10000000L, 10000000L, 10100000L, 10100000L, 10200000L, 10300000L, 10200000L, 10100000L, 10000000L, 9900000L,
+                9800000L, 9700000L, 9600000L, 9500000L, 9400000L}
+        };
+        long[][] highs = new long[][]{
+            {10000000L, 10000000L, 10100000L, 10100000L, 10200000L, 10600000L, 10900000L, 11600000L, 11400000L, 11300000L,
+                11200000L, 11100000L, 11000000L, 10900000L, 10800000L},
+            {10000000L, 10000000L, 10100000L, 10100000L, 10200000L, 10300000L, 10200000L, 10100000L, 10000000L, 9900000L,
+                9800000L, 9700000L, 9600000L, 9500000L, 9400000L}
+        };
+        long[][] lows = new long[][]{
+            {10000000L, 10000000L, 10100000L, 10100000L, 10200000L, 10500000L, 10700000L, 11000000L, 11300000L, 11200000L,
+                11100000L, 11000000L, 10900000L, 10800000L, 10700000L},
+            {10000000L, 10000000L, 10100000L, 10100000L, 10200000L, 10300000L, 10100000L, 10000000L, 9700000L, 9600000L,
+                9700000L, 9600000L, 9500000L, 9400000L, 9300000L}
+        };
+
+        int n = days.length * days[0].length;
+        long[] times = new long[n];
+        long[] opens = new long[n];
+        long[] barHighs = new long[n];
+        long[] barLows = new long[n];
+
+        for (int d = 0; d < days.length; d++) {
+            for (int m = 0; m < days[d].length; m++) {
+                int i = d * days[d].length + m;
+                times[i] = start.plusDays(d).plusMinutes(m).getMillis();
+                opens[i] = days[d][m];
+                barHighs[i] = highs[d][m];
+                barLows[i] = lows[d][m];
+            }
+        }
+
+        TimeSeries minutes = new TimeSeries(times, opens, barHighs, barLows, opens, new long[n]);
+        TimeSeries fiveMinutes = coarsen(minutes, 5);
+
+        for (boolean indexed : new boolean[]{false, true}) {
+            Session fine = backtestBars(minutes, indexed);
+            Session coarse = backtestBars(fiveMinutes, indexed);
+
+            assertEquals(2, fine.getTrades().size());
+            assertEquals(fine.getTrades().size(), coarse.getTrades().size());
+
+            for (int t = 0; t < fine.getTrades().size(); t++) {
+                Trade expected = fine.getTrades().get(t);
+                Trade actual = coarse.getTrades().get(t);
+
+                assertEquals(expected.getOpen(), actual.getOpen());
+                assertEquals(expected.openUnits(), actual.openUnits());
+                assertEquals(expected.closeUnits(), actual.closeUnits());
+                assertEquals(expected.getSize(), actual.getSize());
+            }
+
+            assertEquals(11500000L, fine.getTrades().get(0).closeUnits());
+            assertEquals(9800000L, fine.getTrades().get(1).closeUnits());
+            assertEquals(fine.getProfitCurve(), coarse.getProfitCurve());
+        }
+    }
+
+    /* Groups of n consecutive bars; every day's bar count must be a multiple of n */
+    private static TimeSeries coarsen(TimeSeries bars, int n) throws Exception {
+        int size = bars.size() / n;
+        long[] times = new long[size];
+        long[] opens = new long[size];
+        long[] highs = new long[size];
+        long[] lows = new long[size];
+        long[] closes = new long[size];
+
+        for (int b = 0; b < size; b++) {
+            int first = b * n;
+            times[b] = bars.timeAt(first);
+            opens[b] = bars.priceUnitsAt(first);
+            highs[b] = bars.highUnitsAt(first);
+            lows[b] = bars.lowUnitsAt(first);
+            closes[b] = bars.closeUnitsAt(first + n - 1);
+
+            for (int i = first + 1; i < first + n; i++) {
+                highs[b] = Math.max(highs[b], bars.highUnitsAt(i));
+                lows[b] = Math.min(lows[b], bars.lowUnitsAt(i));
+            }
+        }
+
+        return new TimeSeries(times, opens, highs, lows, closes, new long[size]);
+    }
 }
@@ -0,0 +1,138 @@
+package org.wkh.bateman.model;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.wkh.bateman.fetch.SampleQuotes;
+import org.wkh.bateman.pso.FitnessFunction;
+import org.wkh.bateman.trade.Asset;
+import org.wkh.bateman.trade.Conditions;
+import org.wkh.bateman.trade.FixedPercentageAllocationStrategy;
+import org.wkh.bateman.trade.Money;
+import org.wkh.bateman.trade.MoneyManagementStrategy;
+import org.wkh.bateman.trade.TimeSeries;
+
+public class BuyZoneTriggerSolverTest extends TestCase {
+
+    Conditions conditions;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        conditions = new Conditions(new BigDecimal(1), new BigDecimal(0.001));
+    }
+
+    /* Three days of five bars; the first day's biggest rise comes on its last bar, which is never entered on */
+    private TimeSeries toySeries() throws Exception {
+        double[] opens = new double[]{10, 10.2, 9.9, 10.1, 11, 11.2, 10.8, 11.5, 12.4, 11.9, 12, 12.6, 11.7, 12.9, 13.1};
+        DateTime start = new DateTime(2013, 1, 2, 10, 0);
+        int n = opens.length;
+        long[] times = new long[n];
+        long[] open = new long[n];
+        long[] high = new long[n];
+        long[] low = new long[n];
+
+        for (int i = 0; i < n; i++) {
+            times[i] = start.plusDays(i / 5).plusMinutes(i % 5).getMillis();
+            open[i] = Money.HALF_EVEN.fromBigDecimal(BigDecimal.valueOf(opens[i]));
+            high[i] = open[i] + (i % 3 + 1) * 150000;
+            low[i] = open[i] - (i % 4 + 1) * 100000;
+        }
+
+        return new TimeSeries(times, open, high, low, open, new long[n]);
+    }
+
+    private static long units(double trigger) {
+        return BuyZoneModel.triggerUnits(trigger);
+    }
+
+    public void testEvaluateMatchesBacktest() throws Exception {
+        Asset asset = new Asset(SampleQuotes.SYMBOL, SampleQuotes.googleSeries());
+        MoneyManagementStrategy moneyManager = new FixedPercentageAllocationStrategy(0.75, asset);
+        FitnessFunction backtest = BuyZoneOptimizer.backtest(asset, conditions, moneyManager, 100000);
+        BuyZoneTriggerSolver solver = new BuyZoneTriggerSolver(asset, conditions, moneyManager, 100000,
+                new double[3], new double[3]);
+
+        Random random = new Random(3);
+
+        for (int k = 0; k < 300; k++) {
+            double[] x = new double[]{random.nextDouble() * 4.0, random.nextDouble() * 4.0, random.nextDouble() * 4.0};
+
+            assertEquals(backtest.evaluate(x), solver.evaluate(units(x[0]), units(x[1]), units(x[2])), 0.0);
+        }
+    }
+
+    public void testEvaluateMatchesBacktestOnToySeries() throws Exception {
+        Asset asset = new Asset("FOO", toySeries());
+        MoneyManagementStrategy moneyManager = new FixedPercentageAllocationStrategy(0.5, asset);
+        FitnessFunction backtest = BuyZoneOptimizer.backtest(asset, conditions, moneyManager, 1000);
+        BuyZoneTriggerSolver solver = new BuyZoneTriggerSolver(asset, conditions, moneyManager, 1000,
+                new double[3], new double[3]);
+
+        for (int b = 0; b <= 15; b++) {
+            for (int s = 1; s <= 10; s++) {
+                for (int l = 1; l <= 10; l++) {
+                    double[] x = new double[]{b * 0.1, s * 0.2, l * 0.2};
+
+                    assertEquals(backtest.evaluate(x), solver.evaluate(units(x[0]), units(x[1]), units(x[2])), 0.0);
+                }
+            }
+        }
+    }
+
+    public void testSolutionBeatsGrid() throws Exception {
+        Asset asset = new Asset("FOO", toySeries());
+        MoneyManagementStrategy moneyManager = new FixedPercentageAllocationStrategy(0.5, asset);
+        FitnessFunction backtest = BuyZoneOptimizer.backtest(asset, conditions, moneyManager, 1000);
+        double[] xmin = new double[]{0.0, 0.1, 0.0};
+        double[] xmax = new double[]{1.5, 2.0, 2.0};
+
+        BuyZoneTriggerSolver solver = new BuyZoneTriggerSolver(asset, conditions, moneyManager, 1000, xmin, xmax);
+        double[] best = solver.solve();
+
+        for (int d = 0; d < 3; d++) {
+            assertTrue(best[d] >= xmin[d] && best[d] <= xmax[d]);
+        }
+        assertEquals(solver.getBestValue(), backtest.evaluate(best), 0.0);
+
+        for (int b = 0; b <= 15; b++) {
+            for (int s = 1; s <= 20; s++) {
+                for (int l = 0; l <= 20; l++) {
+                    assertTrue(solver.getBestValue() <= backtest.evaluate(new double[]{b * 0.1, s * 0.1, l * 0.1}));
+                }
+            }
+        }
+    }
+
+    public void testSolutionOnSample() throws Exception {
+        Asset asset = new Asset(SampleQuotes.SYMBOL, SampleQuotes.googleSeries());
+        MoneyManagementStrategy moneyManager = new FixedPercentageAllocationStrategy(0.75, asset);
+        FitnessFunction backtest = BuyZoneOptimizer.backtest(asset, conditions, moneyManager, 100000);
+
+        BuyZoneTriggerSolver solver = new BuyZoneTriggerSolver(asset, conditions, moneyManager, 100000,
+                new double[]{0.0, 0.5, 0.0}, new double[]{3.0, 3.0, 3.0});
+        double[] best = solver.solve();
+
+        assertEquals(solver.getBestValue(), backtest.evaluate(best), 0.0);
+        assertTrue(solver.getBestValue() <= backtest.evaluate(new double[]{0.5, 1.0, 1.0}));
+        assertTrue(solver.getEvaluations() > 0);
+    }
+
+    public void testCellEnds() {
+        long[] breakpoints = new long[]{7, 3, 12, 3, 20};
+
+        assertTrue(Arrays.equals(new long[]{3, 7, 12, 15}, BuyZoneTriggerSolver.upperEnds(breakpoints, 2, 15)));
+        assertTrue(Arrays.equals(new long[]{2, 4, 8, 13}, BuyZoneTriggerSolver.lowerEnds(breakpoints, 2, 15)));
+        assertTrue(Arrays.equals(new long[]{5}, BuyZoneTriggerSolver.upperEnds(new long[0], 1, 5)));
+        assertTrue(Arrays.equals(new long[]{1}, BuyZoneTriggerSolver.lowerEnds(new long[0], 1, 5)));
+    }
+
+    public void testTriggerValueRoundsBackToUnits() {
+        for (long units : new long[]{0, 1, 999999, 1000000, 1285999, 2680001, 444050000}) {
+            assertEquals(units, units(BuyZoneTriggerSolver.triggerValue(units)));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.wkh.bateman.pso;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.wkh.bateman.fetch.SampleQuotes;
+import org.wkh.bateman.model.BuyZoneModel;
+import org.wkh.bateman.trade.Account;
+import org.wkh.bateman.trade.Asset;
+import org.wkh.bateman.trade.Conditions;
+import org.wkh.bateman.trade.FixedPercentageAllocationStrategy;
+import org.wkh.bateman.trade.MoneyManagementStrategy;
+import org.wkh.bateman.trade.TimeSeries;
+
+public class CachingFitnessFunctionTest extends TestCase {
+
+    public void testServesRepeatedCellsFromCache() {
+        final List<double[]> evaluated = new ArrayList<double[]>();
+
+        FitnessFunction fitness = new FitnessFunction() {
+            public double evaluate(double[] x) {
+                evaluated.add(x);
+                return x[0] + x[1];
+            }
+        };
+
+        CachingFitnessFunction cache = new CachingFitnessFunction(fitness, 0.01, 2, 100);
+
+        double first = cache.evaluate(new double[]{0.251, 1.0});
+        double second = cache.evaluate(new double[]{0.254, 0.996});
+
+        assertEquals(first, second);
+        assertEquals(1, evaluated.size());
+        assertEquals(0.25, evaluated.get(0)[0], 1e-12);
+        assertEquals(1.0, evaluated.get(0)[1], 1e-12);
+
+        cache.evaluate(new double[]{0.256, 1.0});
+
+        assertEquals(2, evaluated.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    public void testBoundedSize() {
+        FitnessFunction fitness = new FitnessFunction() {
+            public double evaluate(double[] x) {
+                return x[0];
+            }
+        };
+
+        CachingFitnessFunction cache = new CachingFitnessFunction(fitness, new double[]{1.0}, 10);
+
+        for (int i = 0; i < 100; i++) {
+            cache.evaluate(new double[]{i});
+        }
+
+        assertTrue(cache.size() <= 10);
+    }
+
+    public void testValuesAreThoseOfSnappedPoints() {
+        FitnessFunction fitness = new FitnessFunction() {
+            public double evaluate(double[] x) {
+                return x[0] * x[0] - x[1];
+            }
+        };
+
+        CachingFitnessFunction cache = new CachingFitnessFunction(fitness, 0.01, 2, 100);
+        double[] x = new double[]{0.1234, -0.0049};
+        double[] snapped = cache.snap(x);
+
+        assertEquals(0.12, snapped[0], 1e-12);
+        assertEquals(0.0, snapped[1], 1e-12);
+        assertEquals(fitness.evaluate(snapped), cache.evaluate(x));
+        assertFalse(fitness.evaluate(x) == cache.evaluate(x));
+    }
+
+    public void testSnapsWithinBoundsOffTheGrid() {
+        final List<double[]> evaluated = new ArrayList<double[]>();
+
+        FitnessFunction fitness = new FitnessFunction() {
+            public double evaluate(double[] x) {
+                evaluated.add(x);
+                return x[0];
+            }
+        };
+
+        CachingFitnessFunction cache = new CachingFitnessFunction(fitness, 0.01,
+                new double[]{0.343}, new double[]{1.236}, 100);
+
+        assertEquals(0.343, cache.snap(new double[]{0.343})[0], 1e-12);
+        assertEquals(0.35, cache.snap(new double[]{0.352})[0], 1e-12);
+        assertEquals(1.23, cache.snap(new double[]{1.234})[0], 1e-12);
+        assertEquals(1.236, cache.snap(new double[]{1.236})[0], 1e-12);
+        assertEquals(1.236, cache.snap(new double[]{5.0})[0], 1e-12);
+
+        cache.evaluate(new double[]{0.344});
+        cache.evaluate(new double[]{1.236});
+
+        assertEquals(0.343, evaluated.get(0)[0], 1e-12);
+        assertEquals(1.236, evaluated.get(1)[0], 1e-12);
+    }
+
+    public void testSnappedBestIsBacktestedBest() throws Exception {
+        TimeSeries series = SampleQuotes.googleSeries();
+        final Asset asset = new Asset(SampleQuotes.SYMBOL, series);
+        final Conditions conditions = new Conditions(new BigDecimal(10), new BigDecimal(0.001));
+        final MoneyManagementStrategy moneyManager = new FixedPercentageAllocationStrategy(0.75, asset);
+
+        FitnessFunction backtest = new FitnessFunction() {
+            public double evaluate(double[] x) {
+                try {
+                    TimeSeries series = asset.getTimeSeries();
+                    Account account = new Account(new BigDecimal(100000), series.beginningOfSeries());
+                    BuyZoneModel model = new BuyZoneModel(account, asset, conditions, moneyManager, x[0], x[1], x[2]);
+
+                    return -model.generateIndexedSignals(series.beginningOfSeries(), series.lastOfSeries()).sharpeRatio();
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        };
+
+        double[] xmin = new double[]{0.0, 0.343, 0.0};
+        double[] xmax = new double[]{3.996, 4.005, 3.995};
+        CachingFitnessFunction cache = new CachingFitnessFunction(backtest, 0.01, xmin, xmax, 100000);
+
+        SimpleParticleSwarmOptimizer pso = new SimpleParticleSwarmOptimizer(cache, xmin, xmax, 30, 42L);
+        double[] position = pso.learn();
+        double[] best = cache.snap(position);
+
+        for (int d = 0; d < best.length; d++) {
+            assertTrue(best[d] >= xmin[d] && best[d] <= xmax[d]);
+        }
+
+        assertTrue(cache.evaluate(position) < 0.0);
+        assertEquals(cache.evaluate(position), backtest.evaluate(best));
+    }
+
+    public void testBatchEvaluatesDistinctMissesOnce() {
+        final List<double[][]> batches = new ArrayList<double[][]>();
+
+        BatchFitnessFunction fitness = new BatchFitnessFunction() {
+            public double evaluate(double[] x) {
+                throw new AssertionError("Expected a batch");
+            }
+
+            public double[] evaluateAll(double[][] xs) {
+                batches.add(xs);
+                double[] values = new double[xs.length];
+                for (int i = 0; i < xs.length; i++) {
+                    values[i] = xs[i][0];
+                }
+                return values;
+            }
+        };
+
+        CachingFitnessFunction cache = new CachingFitnessFunction(fitness, new double[]{1.0}, 100);
+
+        double[] values = cache.evaluateAll(new double[][]{{0.8}, {3.2}, {1.1}});
+
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).length);
+        assertEquals(1.0, values[0]);
+        assertEquals(3.0, values[1]);
+        assertEquals(1.0, values[2]);
+
+        values = cache.evaluateAll(new double[][]{{2.9}, {4.2}});
+
+        assertEquals(2, batches.size());
+        assertEquals(1, batches.get(1).length);
+        assertEquals(3.0, values[0]);
+        assertEquals(4.0, values[1]);
+        assertEquals(3.0, cache.evaluate(new double[]{3.3}));
+    }
+}
@@ -0,0 +1,113 @@
+package org.wkh.bateman.pso;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public class IslandParticleSwarmOptimizerTest extends TestCase {
+
+    private static final FitnessFunction SPHERE = new FitnessFunction() {
+        public double evaluate(double[] x) {
+            return x[0] * x[0] + (x[1] - 1.0) * (x[1] - 1.0);
+        }
+    };
+
+    public void testLearn() {
+        IslandParticleSwarmOptimizer pso = new IslandParticleSwarmOptimizer(SPHERE, new double[]{-5.0, -5.0},
+                new double[]{5.0, 5.0}, 50, 4, 42L, null);
+
+        double[] best = pso.learn();
+
+        assertEquals(0.0, SPHERE.evaluate(best), 0.01);
+        assertEquals(SPHERE.evaluate(best), pso.getBestValue());
+    }
+
+    public void testMoreIslandsThanThreads() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            IslandParticleSwarmOptimizer pso = new IslandParticleSwarmOptimizer(SPHERE, new double[]{-5.0, -5.0},
+                    new double[]{5.0, 5.0}, 50, 5, 3, 42L, executor);
+
+            assertEquals(0.0, SPHERE.evaluate(pso.learn()), 0.01);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testOneIslandMatchesPlainSwarm() {
+        double[] xmin = new double[]{-5.0, -5.0};
+        double[] xmax = new double[]{5.0, 5.0};
+
+        double[] island = new IslandParticleSwarmOptimizer(SPHERE, xmin, xmax, 20, 1, 7L, null).learn();
+        double[] plain = new SimpleParticleSwarmOptimizer(SPHERE, xmin, xmax, 20,
+                SeedSequence.streamSeed(7L, 0)).learn();
+
+        assertEquals(plain[0], island[0]);
+        assertEquals(plain[1], island[1]);
+    }
+
+    public void testRejectsNoIslands() {
+        try {
+            new IslandParticleSwarmOptimizer(SPHERE, new double[]{0.0}, new double[]{1.0}, 10, 0, 1L, null);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    public void testSameResultWithAnyNumberOfThreads() {
+        double[] xmin = new double[]{-5.0, -5.0};
+        double[] xmax = new double[]{5.0, 5.0};
+
+        IslandParticleSwarmOptimizer own = new IslandParticleSwarmOptimizer(SPHERE, xmin, xmax, 45, 5, 4, 42L, null);
+        double[] expected = own.learn();
+
+        for (int threads = 1; threads <= 6; threads++) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+            try {
+                IslandParticleSwarmOptimizer pso = new IslandParticleSwarmOptimizer(SPHERE, xmin, xmax, 45, 5, 4,
+                        42L, executor);
+
+                assertTrue(Arrays.equals(expected, pso.learn()));
+                assertEquals(own.getBestValue(), pso.getBestValue());
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    public void testSeedChangesResult() {
+        double[] xmin = new double[]{-5.0, -5.0};
+        double[] xmax = new double[]{5.0, 5.0};
+
+        double[] a = new IslandParticleSwarmOptimizer(SPHERE, xmin, xmax, 20, 3, 42L, null).learn();
+        double[] b = new IslandParticleSwarmOptimizer(SPHERE, xmin, xmax, 20, 3, 43L, null).learn();
+
+        assertFalse(Arrays.equals(a, b));
+    }
+
+    public void testIslandsStopOnTheirOwnCriteria() {
+        final AtomicInteger evaluations = new AtomicInteger();
+
+        FitnessFunction counted = new FitnessFunction() {
+            public double evaluate(double[] x) {
+                evaluations.incrementAndGet();
+                return SPHERE.evaluate(x);
+            }
+        };
+
+        IslandParticleSwarmOptimizer pso = new IslandParticleSwarmOptimizer(counted, new double[]{-5.0, -5.0},
+                new double[]{5.0, 5.0}, 1000, 4, 2, 42L, null);
+        StoppingCriteria criteria = new StoppingCriteria();
+        criteria.setEvaluationLimit(6 * 30);
+        pso.setStoppingCriteria(criteria);
+
+        pso.learn();
+
+        assertEquals(4 * 6 * 30, evaluations.get());
+    }
+}
@@ -0,0 +1,44 @@
+package org.wkh.bateman.pso;
+
+import java.util.HashSet;
+import java.util.Set;
+import junit.framework.TestCase;
+
+public class SeedSequenceTest extends TestCase {
+
+    public SeedSequenceTest(String testName) {
+        super(testName);
+    }
+
+    public void testStreamsAreReproducible() {
+        MersenneTwisterFast a = SeedSequence.generator(SeedSequence.streamSeed(42L, 3));
+        MersenneTwisterFast b = SeedSequence.generator(SeedSequence.streamSeed(42L, 3));
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(a.nextLong(), b.nextLong());
+        }
+    }
+
+    public void testStreamsAreDistinct() {
+        Set<Long> seeds = new HashSet<Long>();
+
+        for (long master = 0; master < 10; master++) {
+            for (int stream = 0; stream < 100; stream++) {
+                seeds.add(SeedSequence.streamSeed(master, stream));
+            }
+        }
+
+        assertEquals(1000, seeds.size());
+    }
+
+    public void testGeneratorUsesEverySeedBit() {
+        long seed = 42L;
+
+        for (int bit = 0; bit < 64; bit++) {
+            MersenneTwisterFast a = SeedSequence.generator(seed);
+            MersenneTwisterFast b = SeedSequence.generator(seed ^ (1L << bit));
+
+            assertFalse(a.nextLong() == b.nextLong());
+        }
+    }
+}
@@ -1,5 +1,13 @@
 package org.wkh.bateman.pso;
 
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import junit.framework.TestCase;
 
 public class SimpleParticleSwarmOptimizerTest extends TestCase {
@@ -19,4 +27,285 @@ public class SimpleParticleSwarmOptimizerTest extends TestCase {
 
         assertEquals(fitness.evaluate(pso.learn()), 0.0, 0.01);
     }
+
+    public void testParallelMatchesSerial() {
+        final FitnessFunction fitness = new FitnessFunction() {
+            public double evaluate(double[] x) {
+                return x[0] * x[0] + (x[1] - 1.0) * (x[1] - 1.0);
+            }
+        };
+
+        double[] xmin = new double[]{-5.0, -5.0};
+        double[] xmax = new double[]{5.0, 5.0};
+
+        double[] serial = new SimpleParticleSwarmOptimizer(fitness, xmin, xmax, 50, 42L).learn();
+        double[] sameThread = new SimpleParticleSwarmOptimizer(fitness, xmin, xmax, 50, 42L,
+                MoreExecutors.sameThreadExecutor()).learn();
+
+        assertTrue(Arrays.equals(serial, sameThread));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            double[] parallel = new SimpleParticleSwarmOptimizer(fitness, xmin, xmax, 50, 42L, executor).learn();
+
+            assertTrue(Arrays.equals(serial, parallel));
+            assertEquals(0.0, fitness.evaluate(parallel), 0.01);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testBatchFitnessScoresEachGenerationAtOnce() {
+        final int[] batches = new int[1];
+
+        BatchFitnessFunction fitness = new BatchFitnessFunction() {
+            public double evaluate(double[] x) {
+                return x[0] * x[0] + (x[1] - 1.0) * (x[1] - 1.0);
+            }
+
+            public double[] evaluateAll(double[][] xs) {
+                batches[0]++;
+                double[] values = new double[xs.length];
+                for (int i = 0; i < xs.length; i++) {
+                    values[i] = evaluate(xs[i]);
+                }
+                return values;
+            }
+        };
+
+        double[] xmin = new double[]{-5.0, -5.0};
+        double[] xmax = new double[]{5.0, 5.0};
+
+        double[] batched = new SimpleParticleSwarmOptimizer(fitness, xmin, xmax, 50, 42L, null).learn();
+
+        assertEquals(51, batches[0]);
+        assertEquals(0.0, fitness.evaluate(batched), 0.01);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            double[] parallel = new SimpleParticleSwarmOptimizer(fitness, xmin, xmax, 50, 42L, executor).learn();
+
+            assertTrue(Arrays.equals(batched, parallel));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testBatchCountDoesNotDependOnTheMachine() {
+        final List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        BatchFitnessFunction fitness = new BatchFitnessFunction() {
+            public double evaluate(double[] x) {
+                return x[0] * x[0];
+            }
+
+            public double[] evaluateAll(double[][] xs) {
+                sizes.add(xs.length);
+                double[] values = new double[xs.length];
+                for (int i = 0; i < xs.length; i++) {
+                    values[i] = evaluate(xs[i]);
+                }
+                return values;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            SimpleParticleSwarmOptimizer pso = new SimpleParticleSwarmOptimizer(fitness, new double[]{-5.0},
+                    new double[]{5.0}, 1, 42L, executor);
+
+            assertEquals(8, sizes.size());
+
+            sizes.clear();
+            pso.setBatches(3);
+            pso.learn();
+
+            assertEquals(Arrays.asList(10, 10, 10), sizes);
+        } finally {
+            executor.shutdown();
+        }
+
+        try {
+            new SimpleParticleSwarmOptimizer(fitness, new double[]{-5.0}, new double[]{5.0}, 1, 42L).setBatches(31);
+            fail("More batches than particles accepted");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    public void testImmigrate() {
+        final FitnessFunction fitness = new FitnessFunction() {
+            public double evaluate(double[] x) {
+                return x[0] * x[0] + 1.0;
+            }
+        };
+
+        SimpleParticleSwarmOptimizer pso = new SimpleParticleSwarmOptimizer(fitness, new double[]{-5.0},
+                new double[]{5.0}, 10, 42L);
+
+        assertFalse(pso.immigrate(new double[]{5.0}, 100.0));
+        assertTrue(pso.immigrate(new double[]{0.0}, 1.0));
+        assertEquals(1.0, pso.getBestValue());
+        assertEquals(0.0, pso.getBest()[0]);
+
+        pso.learn();
+
+        assertEquals(1.0, pso.getBestValue());
+    }
+
+    public void testImmigrantIsNotReseeded() {
+        final int[] atOrigin = new int[1];
+
+        final FitnessFunction flat = new FitnessFunction() {
+            public double evaluate(double[] x) {
+                if (x[0] == 0.0) {
+                    atOrigin[0]++;
+                }
+                return 1.0;
+            }
+        };
+
+        SimpleParticleSwarmOptimizer pso = new SimpleParticleSwarmOptimizer(flat, new double[]{-5.0},
+                new double[]{5.0}, 10, 42L);
+        StoppingCriteria criteria = new StoppingCriteria();
+        criteria.setReseedAfter(2);
+        pso.setStoppingCriteria(criteria);
+
+        // every particle is now due to be reseeded
+        pso.step();
+        pso.step();
+
+        assertTrue(pso.immigrate(new double[]{0.0}, 0.5));
+
+        // at rest on the global best, the immigrant stays put rather than being reseeded
+        pso.step();
+
+        assertEquals(1, atOrigin[0]);
+        assertEquals(0.5, pso.getBestValue());
+    }
+
+    public void testRunsEveryGenerationByDefault() {
+        SimpleParticleSwarmOptimizer pso = new SimpleParticleSwarmOptimizer(sphere(), new double[]{-5.0},
+                new double[]{5.0}, 20, 42L);
+
+        pso.learn();
+
+        assertEquals(SimpleParticleSwarmOptimizer.StopReason.GENERATIONS, pso.getStopReason());
+        assertEquals(20, pso.getGenerationsRun());
+        assertEquals(21 * 30, pso.getEvaluations());
+    }
+
+    public void testStopsOnStagnation() {
+        final FitnessFunction flat = new FitnessFunction() {
+            public double evaluate(double[] x) {
+                return 1.0;
+            }
+        };
+
+        SimpleParticleSwarmOptimizer pso = new SimpleParticleSwarmOptimizer(flat, new double[]{-5.0},
+                new double[]{5.0}, 1000, 42L);
+        StoppingCriteria criteria = new StoppingCriteria();
+        criteria.setStagnationLimit(7);
+        pso.setStoppingCriteria(criteria);
+
+        pso.learn();
+
+        assertEquals(SimpleParticleSwarmOptimizer.StopReason.STAGNATION, pso.getStopReason());
+        assertEquals(7, pso.getGenerationsRun());
+    }
+
+    public void testStopsWhenConverged() {
+        SimpleParticleSwarmOptimizer pso = new SimpleParticleSwarmOptimizer(sphere(), new double[]{-5.0, -5.0},
+                new double[]{5.0, 5.0}, 1000, 42L);
+        StoppingCriteria criteria = new StoppingCriteria();
+        criteria.setMinimumDiameter(0.55);
+        pso.setStoppingCriteria(criteria);
+
+        assertTrue(pso.diameter() >= 0.55);
+
+        pso.learn();
+
+        assertEquals(SimpleParticleSwarmOptimizer.StopReason.CONVERGED, pso.getStopReason());
+        assertTrue(pso.getGenerationsRun() < 1000);
+        assertTrue(pso.diameter() < 0.55);
+    }
+
+    public void testStopsAtEvaluationLimit() {
+        SimpleParticleSwarmOptimizer pso = new SimpleParticleSwarmOptimizer(sphere(), new double[]{-5.0},
+                new double[]{5.0}, 1000, 42L);
+        StoppingCriteria criteria = new StoppingCriteria();
+        criteria.setEvaluationLimit(11 * 30 + 29);
+        pso.setStoppingCriteria(criteria);
+
+        pso.learn();
+
+        assertEquals(SimpleParticleSwarmOptimizer.StopReason.EVALUATION_LIMIT, pso.getStopReason());
+        assertEquals(10, pso.getGenerationsRun());
+        assertEquals(11 * 30, pso.getEvaluations());
+    }
+
+    public void testStopsAtTimeLimit() {
+        final long[] nanos = new long[1];
+
+        // each evaluation takes a millisecond on this clock
+        final FitnessFunction slow = new FitnessFunction() {
+            public double evaluate(double[] x) {
+                nanos[0] += 1000000L;
+                return x[0] * x[0];
+            }
+        };
+
+        SimpleParticleSwarmOptimizer pso = new SimpleParticleSwarmOptimizer(slow, new double[]{-5.0},
+                new double[]{5.0}, 1000, 42L);
+        StoppingCriteria criteria = new StoppingCriteria();
+        criteria.setTimeLimitMillis(100);
+        pso.setStoppingCriteria(criteria);
+        pso.setTicker(new Ticker() {
+            @Override
+            public long read() {
+                return nanos[0];
+            }
+        });
+
+        pso.learn();
+
+        // generations of 30 evaluations start at 0, 30, 60 and 90 ms
+        assertEquals(SimpleParticleSwarmOptimizer.StopReason.TIME_LIMIT, pso.getStopReason());
+        assertEquals(4, pso.getGenerationsRun());
+    }
+
+    public void testReseedingKeepsGlobalBest() {
+        final FitnessFunction fitness = sphere();
+
+        SimpleParticleSwarmOptimizer pso = new SimpleParticleSwarmOptimizer(fitness, new double[]{-5.0, -5.0},
+                new double[]{5.0, 5.0}, 100, 42L);
+        StoppingCriteria criteria = new StoppingCriteria();
+        criteria.setReseedAfter(3);
+        pso.setStoppingCriteria(criteria);
+
+        double previous = pso.getBestValue();
+
+        for (int generation = 0; generation < 100; generation++) {
+            pso.step();
+            assertTrue(pso.getBestValue() <= previous);
+            previous = pso.getBestValue();
+        }
+
+        assertEquals(0.0, fitness.evaluate(pso.getBest()), 0.01);
+        assertEquals(previous, fitness.evaluate(pso.getBest()));
+    }
+
+    private static FitnessFunction sphere() {
+        return new FitnessFunction() {
+            public double evaluate(double[] x) {
+                double sum = 0.0;
+                for (double xi : x) {
+                    sum += xi * xi;
+                }
+                return sum;
+            }
+        };
+    }
 }
@@ -67,4 +67,64 @@ public class AccountTest extends TestCase {
         assertEquals(actual[1], expected[1]);
         assertEquals(actual[2], expected[2]);
     }
+
+    public void testValueAtTime() throws Exception {
+        DateTime start = new DateTime(2013, 3, 1, 9, 30);
+        account = new Account(new BigDecimal(100), start);
+
+        for (int i = 1; i <= 40; i++) {
+            account.profit(new BigDecimal(1), start.plusMinutes(i));
+        }
+
+        assertEquals(41, account.getEquityCurveSize());
+        assertEquals(null, account.valueAtTime(start.minusMillis(1)));
+        assertEquals(new BigDecimal(100), account.valueAtTime(start));
+        assertEquals(new BigDecimal(110), account.valueAtTime(start.plusMinutes(10).plusSeconds(30)));
+        assertEquals(new BigDecimal(140), account.valueAtTime(start.plusDays(1)));
+    }
+
+    public void testChangesAtTheSameInstant() throws Exception {
+        DateTime start = new DateTime(2013, 3, 1, 9, 30);
+        account = new Account(new BigDecimal(100), start);
+
+        account.profit(new BigDecimal(5), start.plusMinutes(1));
+        account.withdraw(new BigDecimal(20), start.plusMinutes(1));
+
+        assertEquals(3, account.getEquityCurveSize());
+        assertEquals(new BigDecimal(85), account.valueAtTime(start.plusMinutes(1)));
+        assertEquals(2, account.getEquityCurve().size());
+    }
+
+    public void testRejectsChangesBackInTime() throws Exception {
+        DateTime start = new DateTime(2013, 3, 1, 9, 30);
+        account = new Account(new BigDecimal(100), start);
+        account.profit(new BigDecimal(5), start.plusMinutes(2));
+
+        try {
+            account.profit(new BigDecimal(5), start.plusMinutes(1));
+            fail("Change before the last one accepted");
+        } catch (Exception ex) {
+        }
+
+        assertEquals(new BigDecimal(105), account.getCurrentAmount());
+    }
+
+    public void testFinalBalanceOnly() throws Exception {
+        DateTime start = new DateTime(2013, 3, 1, 9, 30);
+        account = new Account(new BigDecimal(100), start, true);
+
+        account.withdraw(new BigDecimal(30), start.plusMinutes(1));
+        account.profit(new BigDecimal(50), start.plusMinutes(2));
+
+        assertTrue(account.isFinalBalanceOnly());
+        assertEquals(new BigDecimal(120), account.getCurrentAmount());
+        assertEquals(0, account.getEquityCurveSize());
+        assertTrue(account.getEquityCurve().isEmpty());
+
+        try {
+            account.valueAtTime(start);
+            fail("Final balance only account gave a past balance");
+        } catch (IllegalStateException ex) {
+        }
+    }
 }
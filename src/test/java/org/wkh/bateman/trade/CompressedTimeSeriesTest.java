@@ -0,0 +1,128 @@
+package org.wkh.bateman.trade;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.wkh.bateman.fetch.SampleQuotes;
+
+public class CompressedTimeSeriesTest extends TestCase {
+
+    private TimeSeries sample;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        sample = SampleQuotes.googleSeries();
+    }
+
+    private void assertSameBars(TimeSeries expected, TimeSeries actual) {
+        assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.timeAt(i), actual.timeAt(i));
+            assertEquals(expected.priceUnitsAt(i), actual.priceUnitsAt(i));
+            assertEquals(expected.highUnitsAt(i), actual.highUnitsAt(i));
+            assertEquals(expected.lowUnitsAt(i), actual.lowUnitsAt(i));
+            assertEquals(expected.closeUnitsAt(i), actual.closeUnitsAt(i));
+            assertEquals(expected.volumeAt(i), actual.volumeAt(i));
+        }
+    }
+
+    public void testRoundTrip() throws Exception {
+        CompressedTimeSeries compressed = CompressedTimeSeries.encode(sample);
+
+        assertEquals(sample.size(), compressed.size());
+        assertEquals((sample.size() + 1023) / 1024, compressed.blockCount());
+        assertSameBars(sample, compressed.decode());
+        assertEquals(sample.dayCount(), compressed.decode().dayCount());
+    }
+
+    public void testMinuteBarsCompressWell() throws Exception {
+        CompressedTimeSeries compressed = CompressedTimeSeries.encode(sample);
+
+        // six raw longs are 48 bytes a bar
+        assertTrue(compressed.sizeInBytes() * 4 < sample.size() * 48L);
+    }
+
+    public void testRandomAccess() throws Exception {
+        CompressedTimeSeries compressed = CompressedTimeSeries.encode(sample, 100);
+
+        assertSameBars(sample.slice(300, 400), compressed.decodeBlock(3));
+        assertSameBars(sample.slice(250, 731), compressed.decode(250, 731));
+        assertSameBars(sample.slice(999, 1000), compressed.decode(999, 1000));
+        assertEquals(0, compressed.decode(5, 5).size());
+
+        int last = compressed.blockCount() - 1;
+        assertSameBars(sample.slice(last * 100, sample.size()), compressed.decodeBlock(last));
+    }
+
+    public void testDateRange() throws Exception {
+        CompressedTimeSeries compressed = CompressedTimeSeries.encode(sample, 128);
+
+        DateTime start = sample.dateAt(1000);
+        DateTime end = sample.dateAt(2500);
+
+        assertEquals(7, compressed.blockOf(sample.timeAt(1000)));
+        assertEquals(-1, compressed.blockOf(sample.timeAt(0) - 1));
+        assertSameBars(sample.dateSlice(start, end), compressed.decode(start, end));
+        assertSameBars(sample, compressed.decode(sample.dateAt(0).minusDays(1), sample.dateAt(sample.size() - 1)));
+    }
+
+    public void testIrregularValues() throws Exception {
+        long[] times = {-5000L, 0L, 1L, 60000L, 86400000L * 365, Long.MAX_VALUE / 4};
+        long[] opens = {3, -7, 1L << 50, 0, 123456789, -1};
+        long[] highs = {5, 100, 1L << 52, 0, 123456789, 1L << 40};
+        long[] lows = {-1L << 45, -9, 17, 0, -123456789, -1L << 40};
+        long[] closes = {4, 0, 1L << 51, 0, 42, 0};
+        long[] volumes = {0, Long.MAX_VALUE / 2, 1, 0, 1L << 33, 7};
+
+        TimeSeries series = new TimeSeries(times, opens, highs, lows, closes, volumes);
+
+        for (int blockSize = 1; blockSize <= 7; blockSize++) {
+            assertSameBars(series, CompressedTimeSeries.encode(series, blockSize).decode());
+        }
+    }
+
+    public void testStreamingEncoder() throws Exception {
+        CompressedTimeSeries.Encoder encoder = new CompressedTimeSeries.Encoder(16);
+
+        for (int i = 0; i < sample.size(); i++) {
+            encoder.add(sample.timeAt(i), sample.priceUnitsAt(i), sample.highUnitsAt(i), sample.lowUnitsAt(i),
+                    sample.closeUnitsAt(i), sample.volumeAt(i));
+        }
+
+        assertSameBars(sample, encoder.finish().decode());
+    }
+
+    public void testEmpty() throws Exception {
+        CompressedTimeSeries compressed = CompressedTimeSeries.encode(new TimeSeries(new long[0], new long[0]));
+
+        assertEquals(0, compressed.size());
+        assertEquals(0, compressed.blockCount());
+        assertEquals(0, compressed.decode().size());
+        assertEquals(0, compressed.decode(new DateTime(0), new DateTime(1000)).size());
+    }
+
+    public void testRejectsTimesOutOfOrder() throws Exception {
+        CompressedTimeSeries.Encoder encoder = new CompressedTimeSeries.Encoder();
+        encoder.add(1000, 1, 1, 1, 1, 0);
+
+        try {
+            encoder.add(1000, 1, 1, 1, 1, 0);
+            fail("Repeated time accepted");
+        } catch (Exception ex) {
+        }
+    }
+
+    public void testBadRange() throws Exception {
+        CompressedTimeSeries compressed = CompressedTimeSeries.encode(sample);
+
+        try {
+            compressed.decode(10, sample.size() + 1);
+            fail("Range past the end accepted");
+        } catch (IndexOutOfBoundsException ex) {
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.wkh.bateman.trade;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.TreeMap;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+
+public class IndicatorsTest extends TestCase {
+
+    private static final double EPSILON = 1e-9;
+    private TimeSeries series;
+    private double[] prices;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        Random random = new Random(7);
+        DateTime start = new DateTime(2013, 3, 1, 9, 30);
+        TreeMap<DateTime, BigDecimal> map = new TreeMap<DateTime, BigDecimal>();
+        prices = new double[500];
+
+        long cents = 44000;
+        for (int i = 0; i < prices.length; i++) {
+            cents += random.nextInt(41) - 20;
+            prices[i] = cents / 100.0;
+            map.put(start.plusMinutes(i), BigDecimal.valueOf(cents, 2));
+        }
+
+        series = new TimeSeries(map);
+    }
+
+    public void testSma() {
+        for (int period : new int[]{1, 5, 20}) {
+            Indicator sma = series.indicators().sma(period);
+
+            for (int i = 0; i < prices.length; i++) {
+                if (i < period - 1) {
+                    assertFalse(sma.isDefinedAt(i));
+                    assertTrue(Double.isNaN(sma.valueAt(i)));
+                    continue;
+                }
+
+                double sum = 0.0;
+                for (int j = i - period + 1; j <= i; j++) {
+                    sum += prices[j];
+                }
+
+                assertTrue(sma.isDefinedAt(i));
+                assertEquals(sum / period, sma.valueAt(i), EPSILON);
+            }
+        }
+    }
+
+    public void testRoc() {
+        Indicator roc = series.indicators().roc(10);
+
+        assertFalse(roc.isDefinedAt(9));
+
+        for (int i = 10; i < prices.length; i++) {
+            assertEquals((prices[i] - prices[i - 10]) / prices[i - 10], roc.valueAt(i), EPSILON);
+        }
+    }
+
+    public void testMaxAndMin() {
+        for (int period : new int[]{1, 3, 30}) {
+            Indicator max = series.indicators().max(period);
+            Indicator min = series.indicators().min(period);
+
+            for (int i = period - 1; i < prices.length; i++) {
+                double highest = Double.NEGATIVE_INFINITY;
+                double lowest = Double.POSITIVE_INFINITY;
+
+                for (int j = i - period + 1; j <= i; j++) {
+                    highest = Math.max(highest, prices[j]);
+                    lowest = Math.min(lowest, prices[j]);
+                }
+
+                assertEquals(highest, max.valueAt(i), EPSILON);
+                assertEquals(lowest, min.valueAt(i), EPSILON);
+            }
+        }
+    }
+
+    public void testStdDev() {
+        Indicator stdDev = series.indicators().stdDev(20);
+
+        for (int i = 19; i < prices.length; i++) {
+            double mean = 0.0;
+            for (int j = i - 19; j <= i; j++) {
+                mean += prices[j];
+            }
+            mean /= 20;
+
+            double squares = 0.0;
+            for (int j = i - 19; j <= i; j++) {
+                squares += (prices[j] - mean) * (prices[j] - mean);
+            }
+
+            assertEquals(Math.sqrt(squares / 20), stdDev.valueAt(i), 1e-6);
+        }
+    }
+
+    public void testComputedOncePerPeriod() {
+        Indicators indicators = series.indicators();
+
+        assertSame(indicators, series.indicators());
+        assertSame(indicators.sma(20), indicators.sma(20));
+        assertEquals(5, indicators.sma(5).getPeriod());
+        assertEquals(prices.length, indicators.max(5).size());
+    }
+
+    public void testRemoveDaysDropsIndicators() throws Exception {
+        TreeMap<DateTime, BigDecimal> map = new TreeMap<DateTime, BigDecimal>();
+        DateTime today = new DateTime(2013, 3, 4, 9, 30);
+        map.put(today.minusDays(1), new BigDecimal(10));
+        map.put(today, new BigDecimal(20));
+        map.put(today.plusMinutes(1), new BigDecimal(30));
+
+        TimeSeries twoDays = new TimeSeries(map);
+        assertEquals(15.0, twoDays.indicators().sma(2).valueAt(1), EPSILON);
+
+        twoDays.removeDays(1);
+        assertEquals(25.0, twoDays.indicators().sma(2).valueAt(1), EPSILON);
+    }
+
+    public void testRejectsNonPositivePeriod() {
+        try {
+            series.indicators().sma(0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
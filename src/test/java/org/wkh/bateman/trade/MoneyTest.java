@@ -0,0 +1,97 @@
+package org.wkh.bateman.trade;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+import static junit.framework.Assert.assertEquals;
+import junit.framework.TestCase;
+
+public class MoneyTest extends TestCase {
+
+    public void testConversion() {
+        assertEquals(444050000L, Money.HALF_EVEN.fromBigDecimal(new BigDecimal("444.05")));
+        assertEquals(new BigDecimal("444.05"), Money.toBigDecimal(444050000L));
+        assertEquals(new BigDecimal(10), Money.toBigDecimal(10000000L));
+        assertEquals(BigDecimal.ZERO, Money.toBigDecimal(0L));
+    }
+
+    public void testMultiplyRounding() {
+        // 1.000005 * 0.5 = 0.5000025, which sits exactly between two units
+        long a = 1000005L;
+        long half = 500000L;
+
+        assertEquals(500002L, Money.HALF_EVEN.multiply(a, half));
+        assertEquals(500003L, new Money(RoundingMode.HALF_UP).multiply(a, half));
+        assertEquals(500002L, new Money(RoundingMode.DOWN).multiply(a, half));
+        assertEquals(-500003L, new Money(RoundingMode.FLOOR).multiply(-a, half));
+        assertEquals(-500002L, new Money(RoundingMode.CEILING).multiply(-a, half));
+    }
+
+    public void testMultiplyLargeAmounts() {
+        long balance = Money.HALF_EVEN.fromBigDecimal(new BigDecimal("123456789.123456"));
+        long ratio = Money.HALF_EVEN.fromBigDecimal(new BigDecimal("0.75"));
+
+        assertEquals(new BigDecimal("92592591.842592"), Money.toBigDecimal(Money.HALF_EVEN.multiply(balance, ratio)));
+    }
+
+    public void testMultiplyPastLongProducts() {
+        // the raw product, 4.5 * 10^20, no longer fits in a long
+        long large = 3000000000000L;
+        long factor = 150000000L;
+
+        assertEquals(450000000000000L, Money.HALF_EVEN.multiply(large, factor));
+        assertEquals(-450000000000000L, Money.HALF_EVEN.multiply(-large, factor));
+    }
+
+    private static long exactProduct(long a, long b, RoundingMode rounding) {
+        BigDecimal product = BigDecimal.valueOf(a).multiply(BigDecimal.valueOf(b));
+        return product.movePointLeft(Money.SCALE).setScale(0, rounding).longValueExact();
+    }
+
+    public void testMultiplyNearOverflow() {
+        // operands past sqrt(2^63) whose product still fits, and products
+        // on either side of 2^62 and just short of 2^63
+        long[][] pairs = {
+            {4000000000L, 5000000L},
+            {3037000500L, 3037000500L},
+            {(1L << 31) + 7, (1L << 31) - 3},
+            {(1L << 31) + 1, 1L << 31},
+            {(Long.MAX_VALUE / 3) + 1, 3L},
+            {Long.MAX_VALUE, 1L},
+            {Long.MAX_VALUE / Money.ONE, Money.ONE}
+        };
+
+        for (RoundingMode rounding : new RoundingMode[] {RoundingMode.HALF_EVEN, RoundingMode.HALF_UP,
+                RoundingMode.DOWN, RoundingMode.FLOOR, RoundingMode.CEILING}) {
+            Money money = new Money(rounding);
+
+            for (long[] pair : pairs) {
+                for (int sign = -1; sign <= 1; sign += 2) {
+                    long a = sign * pair[0];
+                    long b = pair[1];
+                    assertEquals(a + " * " + b + " " + rounding, exactProduct(a, b, rounding), money.multiply(a, b));
+                    assertEquals(b + " * " + a + " " + rounding, exactProduct(b, a, rounding), money.multiply(b, a));
+                }
+            }
+        }
+    }
+
+    public void testMultiplyMatchesBigDecimal() {
+        Random random = new Random(7);
+
+        for (int i = 0; i < 10000; i++) {
+            // magnitudes spread from a few units up to the overflow boundary
+            long a = random.nextLong() >> random.nextInt(48);
+            long b = random.nextLong() >> (32 + random.nextInt(32));
+
+            long expected;
+            try {
+                expected = exactProduct(a, b, RoundingMode.HALF_EVEN);
+            } catch (ArithmeticException e) {
+                continue;
+            }
+
+            assertEquals(a + " * " + b, expected, Money.HALF_EVEN.multiply(a, b));
+        }
+    }
+}
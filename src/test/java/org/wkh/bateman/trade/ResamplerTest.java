@@ -0,0 +1,169 @@
+package org.wkh.bateman.trade;
+
+import static junit.framework.Assert.assertEquals;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalTime;
+
+public class ResamplerTest extends TestCase {
+
+    private static final DateTimeZone NEW_YORK = Resampler.SESSION_ZONE;
+
+    private DateTime open;
+    private TimeSeries minutes;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // Friday and the following Monday, 9:30 to 11:59, one bar a minute;
+        // bar k opens at 100 + k, ranges a unit either side and trades k shares
+        open = new DateTime(2013, 3, 1, 9, 30, NEW_YORK);
+        minutes = minuteBars(new DateTime[]{open, open.plusDays(3)}, 150);
+    }
+
+    private TimeSeries minuteBars(DateTime[] sessions, int perSession) throws Exception {
+        int n = sessions.length * perSession;
+        long[] times = new long[n];
+        long[] opens = new long[n];
+        long[] highs = new long[n];
+        long[] lows = new long[n];
+        long[] closes = new long[n];
+        long[] volumes = new long[n];
+
+        for (int k = 0; k < n; k++) {
+            times[k] = sessions[k / perSession].plusMinutes(k % perSession).getMillis();
+            opens[k] = (100 + k) * Money.ONE;
+            highs[k] = opens[k] + Money.ONE;
+            lows[k] = opens[k] - Money.ONE;
+            closes[k] = opens[k] + Money.ONE / 2;
+            volumes[k] = k;
+        }
+
+        return new TimeSeries(times, opens, highs, lows, closes, volumes);
+    }
+
+    public void testHourlyBarsStartAtTheSessionOpen() throws Exception {
+        TimeSeries hourly = minutes.resample(TimeSeriesType.HOURLY);
+
+        // 9:30, 10:30 and a half hour at 11:30 on each day
+        assertEquals(6, hourly.size());
+        assertEquals(open.getMillis(), hourly.timeAt(0));
+        assertEquals(open.plusHours(1).getMillis(), hourly.timeAt(1));
+        assertEquals(open.plusDays(3).getMillis(), hourly.timeAt(3));
+
+        assertEquals(100 * Money.ONE, hourly.priceUnitsAt(0));
+        assertEquals(160 * Money.ONE, hourly.highUnitsAt(0));
+        assertEquals(99 * Money.ONE, hourly.lowUnitsAt(0));
+        assertEquals(159 * Money.ONE + Money.ONE / 2, hourly.closeUnitsAt(0));
+        assertEquals(59 * 60 / 2, hourly.volumeAt(0));
+
+        // the last bar of a session stops at the close
+        assertEquals(249 * Money.ONE + Money.ONE / 2, hourly.closeUnitsAt(2));
+        assertEquals(250 * Money.ONE, hourly.priceUnitsAt(3));
+    }
+
+    public void testHourlyBarsAlignToTheOpenOnLateDays() throws Exception {
+        // the day's first print is at 9:47, and it runs until 11:26
+        DateTime late = new DateTime(2013, 3, 4, 9, 47, NEW_YORK);
+        TimeSeries hourly = minuteBars(new DateTime[]{late}, 100).resample(TimeSeriesType.HOURLY);
+
+        assertEquals(2, hourly.size());
+        assertEquals(late.getMillis(), hourly.timeAt(0));
+        assertEquals(142 * Money.ONE + Money.ONE / 2, hourly.closeUnitsAt(0));
+        assertEquals(new DateTime(2013, 3, 4, 10, 30, NEW_YORK).getMillis(), hourly.timeAt(1));
+        assertEquals(143 * Money.ONE, hourly.priceUnitsAt(1));
+
+        TimeSeries onTheHour = Resampler.resample(minuteBars(new DateTime[]{late}, 100), TimeSeriesType.HOURLY,
+                new LocalTime(9, 0), NEW_YORK);
+
+        assertEquals(3, onTheHour.size());
+        assertEquals(new DateTime(2013, 3, 4, 10, 0, NEW_YORK).getMillis(), onTheHour.timeAt(1));
+        assertEquals(new DateTime(2013, 3, 4, 11, 0, NEW_YORK).getMillis(), onTheHour.timeAt(2));
+    }
+
+    public void testBarsBeforeTheOpenAreKeptApart() throws Exception {
+        DateTime early = new DateTime(2013, 3, 4, 9, 15, NEW_YORK);
+        TimeSeries hourly = minuteBars(new DateTime[]{early}, 30).resample(TimeSeriesType.HOURLY);
+
+        assertEquals(2, hourly.size());
+        assertEquals(114 * Money.ONE + Money.ONE / 2, hourly.closeUnitsAt(0));
+        assertEquals(new DateTime(2013, 3, 4, 9, 30, NEW_YORK).getMillis(), hourly.timeAt(1));
+    }
+
+    public void testDailyBars() throws Exception {
+        TimeSeries daily = minutes.resample(TimeSeriesType.DAILY);
+
+        assertEquals(2, daily.size());
+        assertEquals(open.getMillis(), daily.timeAt(0));
+        assertEquals(100 * Money.ONE, daily.priceUnitsAt(0));
+        assertEquals(250 * Money.ONE, daily.highUnitsAt(0));
+        assertEquals(99 * Money.ONE, daily.lowUnitsAt(0));
+        assertEquals(249 * Money.ONE + Money.ONE / 2, daily.closeUnitsAt(0));
+        assertEquals(149 * 150 / 2, daily.volumeAt(0));
+        assertEquals(250 * Money.ONE, daily.priceUnitsAt(1));
+    }
+
+    public void testCalendarBars() throws Exception {
+        // Friday and Monday fall in different weeks but the same month and year
+        assertEquals(2, minutes.resample(TimeSeriesType.WEEKLY).size());
+        assertEquals(1, minutes.resample(TimeSeriesType.MONTHLY).size());
+
+        TimeSeries yearly = minutes.resample(TimeSeriesType.YEARLY);
+        assertEquals(1, yearly.size());
+        assertEquals(399 * Money.ONE + Money.ONE / 2, yearly.closeUnitsAt(0));
+        assertEquals(299 * 300 / 2, yearly.volumeAt(0));
+
+        TimeSeries yearEnd = minuteBars(new DateTime[]{new DateTime(2012, 12, 31, 9, 30, NEW_YORK),
+            new DateTime(2013, 1, 2, 9, 30, NEW_YORK)}, 10);
+        assertEquals(2, yearEnd.resample(TimeSeriesType.YEARLY).size());
+        assertEquals(2, yearEnd.resample(TimeSeriesType.MONTHLY).size());
+        // both days are in ISO week 1 of 2013
+        assertEquals(1, yearEnd.resample(TimeSeriesType.WEEKLY).size());
+    }
+
+    public void testSameResolutionKeepsBars() throws Exception {
+        TimeSeries same = minutes.resample(TimeSeriesType.EVERY_MINUTE);
+
+        assertEquals(minutes.size(), same.size());
+        assertEquals(minutes.highUnitsAt(17), same.highUnitsAt(17));
+        assertEquals(minutes.volumeAt(17), same.volumeAt(17));
+    }
+
+    public void testResamplesSlice() throws Exception {
+        TimeSeries secondDay = minutes.slice(150, 300);
+
+        assertEquals(1, secondDay.resample(TimeSeriesType.DAILY).size());
+        assertEquals(250 * Money.ONE, secondDay.resample(TimeSeriesType.DAILY).priceUnitsAt(0));
+    }
+
+    public void testIgnoresTheDefaultZone() throws Exception {
+        TimeSeries hourly = minutes.resample(TimeSeriesType.HOURLY);
+        TimeSeries weekly = minutes.resample(TimeSeriesType.WEEKLY);
+        DateTimeZone defaultZone = DateTimeZone.getDefault();
+
+        try {
+            DateTimeZone.setDefault(DateTimeZone.forID("Asia/Tokyo"));
+            TimeSeries tokyo = minuteBars(new DateTime[]{open, open.plusDays(3)}, 150);
+
+            assertSameBars(hourly, tokyo.resample(TimeSeriesType.HOURLY));
+            assertSameBars(weekly, tokyo.resample(TimeSeriesType.WEEKLY));
+        } finally {
+            DateTimeZone.setDefault(defaultZone);
+        }
+    }
+
+    private void assertSameBars(TimeSeries expected, TimeSeries actual) {
+        assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.timeAt(i), actual.timeAt(i));
+            assertEquals(expected.priceUnitsAt(i), actual.priceUnitsAt(i));
+            assertEquals(expected.highUnitsAt(i), actual.highUnitsAt(i));
+            assertEquals(expected.lowUnitsAt(i), actual.lowUnitsAt(i));
+            assertEquals(expected.closeUnitsAt(i), actual.closeUnitsAt(i));
+            assertEquals(expected.volumeAt(i), actual.volumeAt(i));
+        }
+    }
+}
@@ -86,6 +86,25 @@ public class RuleTest extends TestCase {
         assertEquals(1, session.getTrades().size());
     }
 
+    public void testIndexedSignalsMatchSignals() throws Exception {
+        Session session = new BuySellNextDayRule(account, asset, conditions).generateSignals(today.minusDays(5), today.minusDays(1));
+
+        account = new Account(new BigDecimal(1000), today.minusDays(6));
+        Session indexed = new BuySellNextDayRule(account, asset, conditions).generateIndexedSignals(today.minusDays(5), today.minusDays(1));
+
+        assertEquals(session.getTrades().size(), indexed.getTrades().size());
+        for (int i = 0; i < session.getTrades().size(); i++) {
+            assertEquals(session.getTrades().get(i).getOpen(), indexed.getTrades().get(i).getOpen());
+            assertEquals(session.getTrades().get(i).getClose(), indexed.getTrades().get(i).getClose());
+        }
+        assertEquals(session.getProfitCurve(), indexed.getProfitCurve());
+
+        account = new Account(new BigDecimal(1000), today.minusDays(6));
+        Session shorts = new OnlyShortRule(account, asset, conditions).generateIndexedSignals(today.minusDays(5), today.minusDays(1));
+        assertEquals(1, shorts.getTrades().size());
+        assertEquals(TradeType.SHORT, shorts.lastTrade().getType());
+    }
+
     private class BuySellNextDayRule extends Rule {
 
         public BuySellNextDayRule(Account account, Asset asset, Conditions conditions) {
@@ -0,0 +1,54 @@
+package org.wkh.bateman.trade;
+
+import java.util.Random;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import junit.framework.TestCase;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+
+public class RunningStatisticsTest extends TestCase {
+
+    public void testEmpty() {
+        RunningStatistics stats = new RunningStatistics();
+
+        assertEquals(0, stats.getN());
+        assertTrue(Double.isNaN(stats.getMean()));
+        assertTrue(Double.isNaN(stats.getStandardDeviation()));
+    }
+
+    public void testSingleValue() {
+        RunningStatistics stats = new RunningStatistics();
+        stats.addValue(-3.5);
+
+        assertEquals(-3.5, stats.getMean(), 0.0);
+        assertEquals(0.0, stats.getVariance(), 0.0);
+    }
+
+    public void testKnownValues() {
+        RunningStatistics stats = new RunningStatistics();
+
+        for (double value : new double[]{2, 4, 4, 4, 5, 5, 7, 9}) {
+            stats.addValue(value);
+        }
+
+        assertEquals(8, stats.getN());
+        assertEquals(5.0, stats.getMean(), 1e-12);
+        assertEquals(32.0, stats.getM2(), 1e-12);
+        assertEquals(32.0 / 7, stats.getVariance(), 1e-12);
+    }
+
+    public void testMatchesSummaryStatisticsExactly() {
+        Random random = new Random(42);
+        RunningStatistics stats = new RunningStatistics();
+        SummaryStatistics expected = new SummaryStatistics();
+
+        for (int i = 0; i < 1000; i++) {
+            double value = random.nextGaussian() * 1000 + 3;
+            stats.addValue(value);
+            expected.addValue(value);
+
+            assertEquals(expected.getMean(), stats.getMean(), 0.0);
+            assertEquals(expected.getStandardDeviation(), stats.getStandardDeviation(), 0.0);
+        }
+    }
+}
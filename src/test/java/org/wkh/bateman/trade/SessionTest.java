@@ -56,6 +56,19 @@ public class SessionTest extends TradeTest {
     public void testInMarket() {
         assertTrue(session.inMarket(today.minusDays(4)));
         assertFalse(session.inMarket(today));
+        assertTrue(session.inMarket(today.minusDays(3)));
+        assertFalse(session.inMarket(today.minusDays(6)));
+        assertEquals(winningTrade, session.tradeAt(today.minusDays(4)));
+        assertNull(session.tradeAt(today.minusDays(6)));
+    }
+
+    public void testClosedTradeWithin() {
+        assertTrue(session.closedTradeWithin(today.minusDays(6), today));
+        assertTrue(session.closedTradeWithin(today.minusDays(5), today));
+        assertTrue(session.closedTradeWithin(today.minusDays(6), today.minusDays(2)));
+        assertFalse(session.closedTradeWithin(today.minusDays(5), today.minusDays(1)));
+        assertFalse(session.closedTradeWithin(today.minusDays(1), today));
+        assertFalse(session.closedTradeWithin(today.minusDays(8), today.minusDays(6)));
     }
 
     public void testAddingTrades() throws Exception {
@@ -125,4 +138,69 @@ public class SessionTest extends TradeTest {
     public void testComputingSharpeRatio() throws Exception {
         assertEquals(-0.198, session.sharpeRatio(), 0.0001);
     }
+
+    public void testStatisticsOnlySessionKeepsTotalsButNotTrades() throws Exception {
+        Account statsAccount = new Account(new BigDecimal(100), today.minusDays(6));
+        Session statsSession = new Session(statsAccount, conditions, true);
+
+        Trade third = new Trade(asset, today.minusDays(1), today, 1, TradeType.LONG, conditions); // 5 -> 10
+
+        session.addTrade(third);
+        statsSession.addTrade(new Trade(asset, today.minusDays(5), today.minusDays(3), 1, TradeType.LONG, conditions));
+        statsSession.addTrade(new Trade(asset, today.minusDays(3), today.minusDays(1), 1, TradeType.LONG, conditions));
+        statsSession.addTrade(third);
+
+        assertTrue(statsSession.isStatisticsOnly());
+        assertEquals(2, statsSession.getTrades().size());
+        assertEquals(third, statsSession.lastTrade());
+        assertTrue(statsSession.getProfitCurve().isEmpty());
+        assertEquals(3, statsSession.getClosedTradeCount());
+        assertEquals(session.sharpeRatio(), statsSession.sharpeRatio(), 0.0);
+        assertEquals(session.grossProfit(), statsSession.grossProfit());
+        assertEquals(account.getCurrentAmount(), statsAccount.getCurrentAmount());
+        assertEquals(session.maxDrawdown(), statsSession.maxDrawdown());
+        assertTrue(statsSession.inMarket(today.minusDays(1)));
+    }
+
+    public void testMaxDrawdown() throws Exception {
+        account = new Account(new BigDecimal(100), today.minusDays(6));
+        session = new Session(account, conditions);
+
+        // 100 -> 109 -> 93 -> 97
+        session.addTrade(new Trade(asset, today.minusDays(5), null, 1, TradeType.LONG, conditions));
+        session.closeLastTrade(today.minusDays(3));
+        session.addTrade(new Trade(asset, today.minusDays(3), null, 1, TradeType.LONG, conditions));
+        session.closeLastTrade(today.minusDays(1));
+        session.addTrade(new Trade(asset, today.minusDays(1), null, 1, TradeType.LONG, conditions));
+        session.closeLastTrade(today);
+
+        assertEquals(new BigDecimal(97), account.getCurrentAmount());
+        assertEquals(new BigDecimal(16), session.maxDrawdown());
+    }
+
+    public void testStatisticsOnlySessionCannotBeDumped() throws Exception {
+        Session statsSession = new Session(account, conditions, true);
+
+        try {
+            statsSession.dumpTo(System.getProperty("java.io.tmpdir"), "FOO");
+            fail("Dumped a statistics-only session");
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    public void testGrossProfitCountsClosedTradesInEitherMode() throws Exception {
+        for (boolean statisticsOnly : new boolean[]{false, true}) {
+            account = new Account(new BigDecimal(100), today.minusDays(6));
+            session = new Session(account, conditions, statisticsOnly);
+
+            session.addTrade(new Trade(asset, today.minusDays(5), today.minusDays(3), 1, TradeType.LONG, conditions));
+            session.addTrade(new Trade(asset, today.minusDays(3), null, 1, TradeType.LONG, conditions));
+
+            assertEquals(new BigDecimal(9), session.grossProfit());
+
+            session.closeLastTrade(today.minusDays(1));
+
+            assertEquals(new BigDecimal(-7), session.grossProfit());
+        }
+    }
 }
@@ -0,0 +1,110 @@
+package org.wkh.bateman.trade;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.wkh.bateman.fetch.SampleQuotes;
+import org.wkh.bateman.model.BuyZoneModel;
+
+public class TimeSeriesFileTest extends TestCase {
+
+    private Path directory;
+    private TimeSeries sample;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        directory = Files.createTempDirectory("seriesfile");
+        sample = SampleQuotes.googleSeries();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : directory.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(directory);
+
+        super.tearDown();
+    }
+
+    public void testRoundTrip() throws Exception {
+        Path path = directory.resolve("AAPL_60.bars");
+        TimeSeriesFile.write(path, "AAPL", 60, sample);
+
+        assertEquals(64 + sample.size() * 48L, Files.size(path));
+
+        TimeSeriesFile file = TimeSeriesFile.open(path);
+        TimeSeries mapped = file.getSeries();
+
+        assertEquals("AAPL", file.getSymbol());
+        assertEquals(60, file.getInterval());
+        assertEquals(sample.size(), mapped.size());
+        assertEquals(sample.dayCount(), mapped.dayCount());
+
+        for (int i = 0; i < sample.size(); i++) {
+            assertEquals(sample.timeAt(i), mapped.timeAt(i));
+            assertEquals(sample.priceUnitsAt(i), mapped.priceUnitsAt(i));
+            assertEquals(sample.highUnitsAt(i), mapped.highUnitsAt(i));
+            assertEquals(sample.lowUnitsAt(i), mapped.lowUnitsAt(i));
+            assertEquals(sample.closeUnitsAt(i), mapped.closeUnitsAt(i));
+            assertEquals(sample.volumeAt(i), mapped.volumeAt(i));
+        }
+
+        DateTime bar = sample.dateAt(100);
+        assertEquals(sample.priceAt(bar), mapped.priceAt(bar));
+        assertEquals(sample.openOnDay(bar), mapped.openOnDay(bar));
+    }
+
+    public void testBacktestOnMappedSeries() throws Exception {
+        Path path = directory.resolve("AAPL_60.bars");
+        TimeSeriesFile.write(path, "AAPL", 60, sample);
+        TimeSeries mapped = TimeSeriesFile.open(path).getSeries();
+
+        Session expected = backtest(sample);
+        Session actual = backtest(mapped);
+
+        assertTrue(expected.getTrades().size() > 0);
+        assertEquals(expected.getTrades().size(), actual.getTrades().size());
+        assertEquals(expected.getProfitCurve(), actual.getProfitCurve());
+    }
+
+    private Session backtest(TimeSeries series) throws Exception {
+        Asset asset = new Asset("AAPL", series);
+        Account account = new Account(new BigDecimal(100000), series.beginningOfSeries());
+        Conditions conditions = new Conditions(new BigDecimal(10), new BigDecimal("0.001"));
+        BuyZoneModel model = new BuyZoneModel(account, asset, conditions,
+                new FixedPercentageAllocationStrategy(0.75, asset), 0.5, 1.0, 1.0);
+
+        return model.generateIndexedSignals(series.beginningOfSeries(), series.lastOfSeries());
+    }
+
+    public void testEmptySeries() throws Exception {
+        Path path = directory.resolve("EMPTY_60.bars");
+        TimeSeriesFile.write(path, "EMPTY", 60, new TimeSeries(new long[0], new long[0]));
+
+        assertEquals(0, TimeSeriesFile.open(path).getSeries().size());
+    }
+
+    public void testRejectsOtherFiles() throws Exception {
+        Path path = directory.resolve("notes.bars");
+        Files.write(path, "this is not a series file, just some text that is long enough".getBytes(StandardCharsets.UTF_8));
+
+        boolean threw = false;
+
+        try {
+            TimeSeriesFile.open(path);
+        } catch (Exception ex) {
+            threw = true;
+        }
+
+        assertTrue(threw);
+    }
+}
@@ -4,7 +4,6 @@ import org.joda.time.DateTime;
 
 import java.math.BigDecimal;
 import java.util.Arrays;
-import java.util.SortedMap;
 import java.util.TreeMap;
 
 import static junit.framework.Assert.assertEquals;
@@ -35,21 +34,23 @@ public class TimeSeriesTest extends TestCase {
         series = new TimeSeries(prices);
     }
 
-    public void testOpen() {
+    public void testOpen() throws Exception {
         DateTime oneMinuteLater = today.plusMinutes(1);
         prices.put(oneMinuteLater, new BigDecimal(9.1));
+        series = new TimeSeries(prices);
 
         assertEquals(series.openOnDay(today), new BigDecimal(9.0));
         assertEquals(series.openOnDay(oneMinuteLater), new BigDecimal(9.0));
         assertEquals(series.openOnDay(yesterday), new BigDecimal(11.0));
     }
 
-    public void testClose() {
+    public void testClose() throws Exception {
 
         assertEquals(series.closeOnDay(today), today);
 
         DateTime oneMinuteLater = today.plusMinutes(1);
         prices.put(oneMinuteLater, new BigDecimal(9.1));
+        series = new TimeSeries(prices);
 
         assertEquals(series.closeOnDay(today), oneMinuteLater);
     }
@@ -70,11 +71,145 @@ public class TimeSeriesTest extends TestCase {
 
         series = new TimeSeries(prices);
 
-        SortedMap<DateTime, BigDecimal> slice = series.dateSlice(today.plusDays(1), today.plusDays(7));
+        TimeSeries slice = series.dateSlice(today.plusDays(1), today.plusDays(7));
+
+        assertEquals(today.plusDays(1), slice.beginningOfSeries());
+        assertTrue(slice.hasPriceAt(today.plusDays(2)));
+        assertEquals(today.plusDays(7), slice.lastOfSeries());
+        assertEquals(3, slice.size());
+    }
+
+    public void testSliceIsAViewOfTheSameBars() throws Exception {
+        DateTime morning = today.toDateMidnight().toDateTime().plusHours(9);
+        TreeMap<DateTime, BigDecimal> bars = new TreeMap<DateTime, BigDecimal>();
+        for (int day = 0; day < 3; day++) {
+            for (int minute = 0; minute < 4; minute++) {
+                bars.put(morning.plusDays(day).plusMinutes(minute), new BigDecimal(10 * day + minute));
+            }
+        }
+        series = new TimeSeries(bars);
+
+        // from the second bar of day 0 to the third bar of day 2
+        TimeSeries slice = series.slice(1, 11);
+
+        assertEquals(10, slice.size());
+        assertEquals(series.timeAt(1), slice.timeAt(0));
+        assertEquals(0, slice.indexOf(morning.plusMinutes(1)));
+        assertEquals(-1, slice.indexOf(morning));
+        assertEquals(3, slice.dayCount());
+        assertEquals(0, slice.dayOf(0));
+        assertEquals(1, slice.dayOf(3));
+
+        // the clipped first and last days start and end with the slice
+        assertEquals(new BigDecimal(1), slice.openOnDay(morning.plusMinutes(2)));
+        assertEquals(1000000L, slice.openUnitsOnDay(2));
+        assertEquals(new BigDecimal(10), slice.openOnDay(morning.plusDays(1).plusMinutes(2)));
+        assertEquals(morning.plusDays(2).plusMinutes(2), slice.closeOnDay(morning.plusDays(2)));
+        assertEquals(9, slice.closeIndexOnDay(8));
+        assertEquals(6, slice.lastBarOfDay(1));
+
+        // slices of slices still point at the same bars
+        TimeSeries inner = slice.slice(3, 7);
+        assertEquals(series.timeAt(4), inner.timeAt(0));
+        assertEquals(1, inner.dayCount());
+        assertEquals(series.getPrices().subMap(series.dateAt(4), true, series.dateAt(7), true), inner.getPrices());
+    }
+
+    public void testRemoveDaysFromSlice() throws Exception {
+        prices.put(today.plusMinutes(1), new BigDecimal(9.1));
+        series = new TimeSeries(prices);
+
+        TimeSeries slice = series.slice(1, 4);
+        slice.removeDays(1);
+
+        assertEquals(2, slice.size());
+        assertEquals(today, slice.beginningOfSeries());
+        assertEquals(1, slice.dayCount());
+        assertEquals(4, series.size());
+    }
+
+    public void testBadSliceBounds() {
+        try {
+            series.slice(2, 4);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+        }
+    }
+
+    public void testColumns() throws Exception {
+        assertEquals(3, series.size());
+        assertEquals(twoDaysAgo.getMillis(), series.timeAt(0));
+        assertEquals(10000000L, series.priceUnitsAt(0));
+        assertEquals(1, series.indexOf(yesterday));
+        assertEquals(-1, series.indexOf(today.plusDays(1)));
+        assertEquals(prices, series.getPrices());
+    }
+
+    public void testDayIndex() throws Exception {
+        prices.put(today.plusMinutes(1), new BigDecimal(9.1));
+        series = new TimeSeries(prices);
+
+        assertEquals(3, series.dayCount());
+        assertEquals(2, series.dayOf(3));
+        assertEquals(2, series.firstBarOfDay(2));
+        assertEquals(3, series.lastBarOfDay(2));
+        assertEquals(3, series.closeIndexOnDay(2));
+        assertEquals(9000000L, series.openUnitsOnDay(3));
+        assertSame(series.openOnDay(today), series.openOnDay(today.plusMinutes(1)));
+        assertNull(series.openOnDay(twoDaysAgo.minusMinutes(1)));
+    }
+
+    public void testRejectsUnorderedColumns() {
+        boolean threw = false;
+
+        try {
+            new TimeSeries(new long[]{2L, 1L}, new long[]{1L, 1L});
+        } catch (Exception ex) {
+            threw = true;
+        }
+
+        assertTrue(threw);
+    }
+
+    public void testOhlcvColumns() throws Exception {
+        long[] times = new long[]{twoDaysAgo.getMillis(), yesterday.getMillis(), today.getMillis()};
+        series = new TimeSeries(times,
+                new long[]{10000000L, 11000000L, 9000000L},
+                new long[]{10500000L, 11200000L, 9300000L},
+                new long[]{9800000L, 10900000L, 8700000L},
+                new long[]{10100000L, 11100000L, 9100000L},
+                new long[]{100L, 200L, 300L});
+
+        assertEquals(11000000L, series.priceUnitsAt(1));
+        assertEquals(11200000L, series.highUnitsAt(1));
+        assertEquals(10900000L, series.lowUnitsAt(1));
+        assertEquals(11100000L, series.closeUnitsAt(1));
+        assertEquals(200L, series.volumeAt(1));
+
+        series.removeDays(1);
+
+        assertEquals(2, series.size());
+        assertEquals(9300000L, series.highUnitsAt(1));
+        assertEquals(300L, series.volumeAt(1));
+    }
+
+    public void testOpensOnlySeriesUsesOpensForRange() {
+        assertEquals(series.priceUnitsAt(1), series.highUnitsAt(1));
+        assertEquals(series.priceUnitsAt(1), series.lowUnitsAt(1));
+        assertEquals(series.priceUnitsAt(1), series.closeUnitsAt(1));
+        assertEquals(0L, series.volumeAt(1));
+    }
+
+    public void testRejectsMismatchedColumns() {
+        boolean threw = false;
+
+        try {
+            new TimeSeries(new long[]{1L, 2L}, new long[]{1L, 1L}, new long[]{1L, 1L}, new long[]{1L},
+                    new long[]{1L, 1L}, new long[]{0L, 0L});
+        } catch (Exception ex) {
+            threw = true;
+        }
 
-        assertEquals(today.plusDays(1), slice.firstKey());
-        assertTrue(slice.containsKey(today.plusDays(2)));
-        assertEquals(today.plusDays(7), slice.lastKey());
-        assertEquals(3, slice.keySet().size());
+        assertTrue(threw);
     }
 }
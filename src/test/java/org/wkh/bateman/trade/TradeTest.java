@@ -109,4 +109,12 @@ public class TradeTest extends AssetTest {
         multipleShareTrade.setConditions(new Conditions(new BigDecimal(10), new BigDecimal(0.01)));
         assertEquals(multipleShareTrade.profit().doubleValue(), 385.0, 0.0001);
     }
+
+    public void testUnitsMatchBigDecimalPrices() throws Exception {
+        multipleShareTrade.setConditions(new Conditions(new BigDecimal(10), new BigDecimal("0.01")));
+
+        assertEquals(0, multipleShareTrade.getPurchasePrice().compareTo(Money.toBigDecimal(multipleShareTrade.purchaseUnits())));
+        assertEquals(0, multipleShareTrade.getSellPrice().compareTo(Money.toBigDecimal(multipleShareTrade.sellUnits())));
+        assertEquals(385000000L, multipleShareTrade.profitUnits());
+    }
 }